@@ -12,10 +12,22 @@ public interface Agent<Sensor, Motor> {
 
     List<Integer> getStructure();
 
+    /**
+     * @return seed the agent was created with
+     */
+    long getSeed();
+
     @Override
     String toString();
 
     Motor interact(Sensor s, double reward);
 
+    /**
+     * Learns a block of recorded interaction. Motor i was taken after sensor i and reward i was received with sensor i.
+     *
+     * @return the motor the agent takes after the last sensor
+     */
+    Motor interact(Sensor[] sensors, Motor[] motors, double[] rewards);
+
     Sensor predict(Tuple<Sensor, Motor> cause);
 }
@@ -0,0 +1,120 @@
+package net.sophomatics.agents;
+
+import net.sophomatics.util.Tuple;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reactive stream stage around an agent. Subscribes to (sensor, reward) pairs and publishes one step per sensor with
+ * the agent's action and its prediction of the next sensor. Upstream demand is requested in batches and only
+ * replenished after the steps have been handed to subscribers, so slow subscribers throttle the source.
+ * <p>
+ * Only demand is batched. Every sensor still takes one call to interact, predict and submit. The block interact of
+ * Agent learns recorded motors, but here each motor is the agent's own choice after the previous sensor, so sensors
+ * cannot be passed to the agent in blocks.
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-21
+ */
+public class AgentProcessor<Sensor, Motor> extends SubmissionPublisher<AgentProcessor.Step<Sensor, Motor>> implements Flow.Processor<Tuple<Sensor, Double>, AgentProcessor.Step<Sensor, Motor>> {
+    public final static int DEFAULT_BATCH_SIZE = 256;
+    private final Agent<Sensor, Motor> agent;
+    private final int batchSize;
+    private Flow.Subscription subscription;
+    private int pending;
+
+    /**
+     * Delivers steps on a thread of its own that ends after a second without deliveries.
+     */
+    public AgentProcessor(Agent<Sensor, Motor> agent) {
+        this(agent, DEFAULT_BATCH_SIZE, newDeliveryExecutor());
+    }
+
+    /**
+     * @param batchSize number of sensors requested from upstream at once, also the buffer size towards subscribers
+     * @param executor  delivers steps to subscribers
+     */
+    public AgentProcessor(Agent<Sensor, Motor> agent, int batchSize, Executor executor) {
+        super(executor, batchSize);
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive.");
+        }
+        this.agent = agent;
+        this.batchSize = batchSize;
+        this.subscription = null;
+        this.pending = 0;
+    }
+
+    private static Executor newDeliveryExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 1L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "agent-processor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // nothing shuts the executor down, an idle processor must not keep its thread
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (this.subscription != null) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        this.pending = this.batchSize;
+        subscription.request(this.batchSize);
+    }
+
+    @Override
+    public void onNext(Tuple<Sensor, Double> item) {
+        Motor m = this.agent.interact(item.a, item.b);
+        Sensor prediction = this.agent.predict(new Tuple<>(item.a, m));
+        // blocks while subscribers lag a full buffer behind
+        this.submit(new Step<>(item.a, m, prediction));
+
+        // ask for the next batch once half of the current one is consumed
+        if (--this.pending <= this.batchSize / 2) {
+            this.subscription.request(this.batchSize - this.pending);
+            this.pending = this.batchSize;
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        this.closeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        this.close();
+    }
+
+    public static class Step<Sensor, Motor> {
+        public final Sensor sensor;
+        public final Motor motor;
+        public final Sensor prediction;
+
+        public Step(Sensor sensor, Motor motor, Sensor prediction) {
+            this.sensor = sensor;
+            this.motor = motor;
+            this.prediction = prediction;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + this.sensor + ", " + this.motor + ", " + this.prediction + ")";
+        }
+    }
+}
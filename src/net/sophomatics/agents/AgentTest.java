@@ -0,0 +1,203 @@
+package net.sophomatics.agents;
+
+import net.sophomatics.hierarchy.Execution;
+import net.sophomatics.planner.PrioritizedSweeping;
+import net.sophomatics.stochastic_process.StochasticProcess;
+import net.sophomatics.stochastic_process.StochasticProcessFactory;
+import net.sophomatics.util.Tuple;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Checks that deterministic execution learns the same as serial execution, that forks do not affect each other and
+ * that closed agents leave no level workers behind.
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-24
+ */
+public class AgentTest {
+    private final static Logger logger = Logger.getLogger(AgentTest.class.getSimpleName());
+    private final static String text0 = "peter piper picked a peck of pickled peppers a peck of pickled peppers peter piper picked if peter piper picked a peck of pickled peppers wheres the peck of pickled peppers peter piper picked ";
+    private final static String text1 = "Just go to your Package Explorer and press F5, or for some laptops fn+F5. The reason is that eclipse thinks that the files are somewhere, but the files are actually somewhere else.";
+    private final static Set<Boolean> actions = new HashSet<>(Arrays.asList(true, false));
+    private static int errors = 0;
+
+    private static void report(String what, String value, String expected) {
+        if (!value.equals(expected)) {
+            logger.log(Level.SEVERE, String.format("%s differs:\n%s\nexpected\n%s", what, value, expected));
+            errors++;
+        }
+    }
+
+    /**
+     * Reading the text moves on for a true motor and back for a false one.
+     *
+     * @return motors of all steps
+     */
+    private static String run(Agent<Character, Boolean> agent, String text, int steps) {
+        StringBuilder motors = new StringBuilder();
+        double reward = 0d;
+        for (int i = 0, k = 0; k < steps; i++, k++) {
+            boolean m = agent.interact(text.charAt(Math.floorMod(i, text.length())), reward);
+            motors.append(m ? '1' : '0');
+            reward = m ? 1d : -1d;
+            if (!m) {
+                i -= 2;
+            }
+        }
+        return motors.toString();
+    }
+
+    private static String describe(StochasticProcessFactory<Tuple<Character, Boolean>, Character> factory) {
+        StringBuilder sb = new StringBuilder();
+        if (factory != null) {
+            for (StochasticProcess<Tuple<Character, Boolean>, Character> eachModel : factory) {
+                sb.append(eachModel.print());
+                sb.append("\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String describe(HierarchicalAgent<Character, Boolean> agent) {
+        agent.flush();
+        return agent.getStructure() + " " + agent.getTrace() + "\n" + describe(agent.getFactory());
+    }
+
+    private static String describe(EvertedAgent<Character, Boolean> agent) {
+        agent.flush();
+        return agent.getStructure() + " " + agent.getTrace() + "\n" + describe(agent.getFactory());
+    }
+
+    private static HierarchicalAgent<Character, Boolean> newHierarchicalAgent(Execution execution) {
+        return new HierarchicalAgent<>(.7f, actions, new PrioritizedSweeping<Character, Boolean>(), 0, execution);
+    }
+
+    private static EvertedAgent<Character, Boolean> newEvertedAgent(Execution execution) {
+        return new EvertedAgent<>(.8d, actions, new PrioritizedSweeping<Character, Boolean>(), execution);
+    }
+
+    private static void checkExecution(String text, int steps) {
+        HierarchicalAgent<Character, Boolean> serial = newHierarchicalAgent(Execution.SERIAL);
+        HierarchicalAgent<Character, Boolean> deterministic = newHierarchicalAgent(Execution.DETERMINISTIC);
+        report("Deterministic hierarchical motors", run(deterministic, text, steps), run(serial, text, steps));
+        report("Deterministic hierarchical state", describe(deterministic), describe(serial));
+        serial.close();
+        deterministic.close();
+
+        EvertedAgent<Character, Boolean> evertedSerial = newEvertedAgent(Execution.SERIAL);
+        EvertedAgent<Character, Boolean> evertedDeterministic = newEvertedAgent(Execution.DETERMINISTIC);
+        report("Deterministic everted motors", run(evertedDeterministic, text, steps), run(evertedSerial, text, steps));
+        report("Deterministic everted state", describe(evertedDeterministic), describe(evertedSerial));
+        evertedSerial.close();
+        evertedDeterministic.close();
+    }
+
+    private static void checkFork(int steps) {
+        HierarchicalAgent<Character, Boolean> original = newHierarchicalAgent(Execution.SERIAL);
+        run(original, text0, steps);
+        String trained = describe(original);
+        HierarchicalAgent<Character, Boolean> diverging = original.fork();
+        HierarchicalAgent<Character, Boolean> following = original.fork();
+        run(diverging, text1, steps);
+        report("Hierarchical original after fork learned", describe(original), trained);
+        report("Hierarchical fork motors", run(following, text0, steps), run(original, text0, steps));
+        report("Hierarchical fork state", describe(following), describe(original));
+        original.close();
+        diverging.close();
+        following.close();
+
+        EvertedAgent<Character, Boolean> evertedOriginal = newEvertedAgent(Execution.SERIAL);
+        run(evertedOriginal, text0, steps);
+        String evertedTrained = describe(evertedOriginal);
+        EvertedAgent<Character, Boolean> evertedDiverging = evertedOriginal.fork();
+        EvertedAgent<Character, Boolean> evertedFollowing = evertedOriginal.fork();
+        run(evertedDiverging, text1, steps);
+        report("Everted original after fork learned", describe(evertedOriginal), evertedTrained);
+        report("Everted fork motors", run(evertedFollowing, text0, steps), run(evertedOriginal, text0, steps));
+        report("Everted fork state", describe(evertedFollowing), describe(evertedOriginal));
+        evertedOriginal.close();
+        evertedDiverging.close();
+        evertedFollowing.close();
+    }
+
+    private static void checkLibrary(int steps) {
+        HierarchicalAgent<Character, Boolean> owner = newHierarchicalAgent(Execution.SERIAL);
+        run(owner, text0, steps);
+        HierarchicalAgent<Character, Boolean> reference = owner.fork();
+        StochasticProcessFactory<Tuple<Character, Boolean>, Character> library = owner.getLibrary();
+        String exported = describe(library);
+        HierarchicalAgent<Character, Boolean> tenant = new HierarchicalAgent<>(.7f, actions, new PrioritizedSweeping<Character, Boolean>(), 0, Execution.SERIAL, library);
+        run(tenant, text1, steps);
+        report("Hierarchical owner motors after export", run(owner, text1, steps), run(reference, text1, steps));
+        report("Hierarchical owner state after export", describe(owner), describe(reference));
+        report("Hierarchical library after export", describe(library), exported);
+        owner.close();
+        reference.close();
+        tenant.close();
+
+        EvertedAgent<Character, Boolean> evertedOwner = newEvertedAgent(Execution.SERIAL);
+        run(evertedOwner, text0, steps);
+        EvertedAgent<Character, Boolean> evertedReference = evertedOwner.fork();
+        StochasticProcessFactory<Tuple<Character, Boolean>, Character> evertedLibrary = evertedOwner.getLibrary();
+        String evertedExported = describe(evertedLibrary);
+        EvertedAgent<Character, Boolean> evertedTenant = new EvertedAgent<>(.8d, actions, new PrioritizedSweeping<Character, Boolean>(), Execution.SERIAL, evertedLibrary);
+        run(evertedTenant, text1, steps);
+        report("Everted owner motors after export", run(evertedOwner, text1, steps), run(evertedReference, text1, steps));
+        report("Everted owner state after export", describe(evertedOwner), describe(evertedReference));
+        report("Everted library after export", describe(evertedLibrary), evertedExported);
+        evertedOwner.close();
+        evertedReference.close();
+        evertedTenant.close();
+    }
+
+    private static int countLevelThreads() {
+        int threads = 0;
+        for (Thread eachThread : Thread.getAllStackTraces().keySet()) {
+            if (eachThread.isAlive() && eachThread.getName().contains("level-")) {
+                threads++;
+            }
+        }
+        return threads;
+    }
+
+    private static void checkClose(int agents, int steps) {
+        int before = countLevelThreads();
+        List<HierarchicalAgent<Character, Boolean>> hierarchical = new ArrayList<>();
+        List<EvertedAgent<Character, Boolean>> everted = new ArrayList<>();
+        for (int i = 0; i < agents; i++) {
+            hierarchical.add(newHierarchicalAgent(Execution.PIPELINED));
+            run(hierarchical.get(i), text0, steps);
+            hierarchical.add(hierarchical.get(i).fork());
+            everted.add(newEvertedAgent(Execution.PIPELINED));
+            run(everted.get(i), text0, steps);
+            everted.add(everted.get(i).fork());
+        }
+        if (countLevelThreads() <= before) {
+            report("Level threads of pipelined agents", Integer.toString(countLevelThreads()), "more than " + before);
+        }
+        for (HierarchicalAgent<Character, Boolean> eachAgent : hierarchical) {
+            eachAgent.close();
+        }
+        for (EvertedAgent<Character, Boolean> eachAgent : everted) {
+            eachAgent.close();
+        }
+        report("Level threads after close", Integer.toString(countLevelThreads()), Integer.toString(before));
+    }
+
+    public static void main(String[] args) {
+        checkExecution(text0, 20000);
+        checkExecution(text1, 20000);
+        checkFork(10000);
+        checkLibrary(10000);
+        checkClose(10, 5000);
+        logger.info(String.format("Finished with %s errors.", errors));
+    }
+}
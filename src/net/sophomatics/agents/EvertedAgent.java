@@ -1,35 +1,140 @@
 package net.sophomatics.agents;
 
+import net.sophomatics.events.BreakdownEvent;
 import net.sophomatics.hierarchy.EvertedHierarchy;
+import net.sophomatics.hierarchy.Execution;
+import net.sophomatics.hierarchy.Hierarchy;
+import net.sophomatics.hierarchy.MemoryBudget;
+import net.sophomatics.hierarchy.PressureResponse;
+import net.sophomatics.planner.Planner;
+import net.sophomatics.planner.PrioritizedSweeping;
 import net.sophomatics.stochastic_process.MatrixStochasticProcess;
+import net.sophomatics.stochastic_process.Rollout;
 import net.sophomatics.stochastic_process.StochasticProcess;
+import net.sophomatics.stochastic_process.StochasticProcessFactory;
+import net.sophomatics.util.Randoms;
 import net.sophomatics.util.Tuple;
 
+import java.io.Closeable;
 import java.util.*;
 
 /**
  * Created by wernsdorfer on 22.08.2015.
  */
-public class EvertedAgent<Sensor, Motor> implements Agent<Sensor, Motor> {
+public class EvertedAgent<Sensor, Motor> implements Agent<Sensor, Motor>, Closeable {
+    public final static long DEFAULT_SEED = 3771L;
+    private final long seed;
     private final double threshold;
+    private final Execution execution;
+    private final StochasticProcessFactory<Tuple<Sensor, Motor>, Sensor> library;
     private EvertedHierarchy<Sensor, Motor> h;
     private StochasticProcess<Tuple<Sensor, Motor>, Sensor> context;
+    // fork of the context for predict on other threads, renewed when the context has changed and predict asked for it
+    // or Hierarchy.SNAPSHOT_INTERVAL transitions have been perceived since
+    private volatile StochasticProcess<Tuple<Sensor, Motor>, Sensor> publishedContext;
+    private volatile boolean contextRequested;
+    private long publishedVersion;
+    private int unpublished;
     private final StochasticProcess<Tuple<Sensor, Motor>, Sensor> observation;
     private Tuple<Sensor, Motor> lastCause;
     private final Set<Motor> actions;
+    private final Planner<Sensor, Motor> planner;
     private final Random r;
+    private float epsilon;
+    private String statisticsName;
+    private MemoryBudget budget;
+    private boolean closed;
 
     public EvertedAgent(double threshold, Set<Motor> actions) {
+        this(threshold, actions, new PrioritizedSweeping<Sensor, Motor>());
+    }
+
+    public EvertedAgent(double threshold, Set<Motor> actions, Planner<Sensor, Motor> planner) {
+        this(threshold, actions, planner, Execution.SERIAL);
+    }
+
+    /**
+     * @param execution how the levels above the first are executed
+     */
+    public EvertedAgent(double threshold, Set<Motor> actions, Planner<Sensor, Motor> planner, Execution execution) {
+        this(threshold, actions, planner, execution, null);
+    }
+
+    /**
+     * @param library first level types shared with other agents, see getLibrary, null to learn them from scratch
+     */
+    public EvertedAgent(double threshold, Set<Motor> actions, Planner<Sensor, Motor> planner, Execution execution, StochasticProcessFactory<Tuple<Sensor, Motor>, Sensor> library) {
+        this(threshold, actions, planner, execution, library, DEFAULT_SEED);
+    }
+
+    /**
+     * @param seed seed of all random decisions, serial agents with the same seed and input behave identically
+     */
+    public EvertedAgent(double threshold, Set<Motor> actions, Planner<Sensor, Motor> planner, Execution execution, StochasticProcessFactory<Tuple<Sensor, Motor>, Sensor> library, long seed) {
+        this.seed = seed;
         this.threshold = threshold;
+        this.execution = execution;
+        this.library = library;
         this.h = null;
         this.observation = new MatrixStochasticProcess<>(-1);
         this.context = null;
+        this.publishedContext = null;
+        this.contextRequested = false;
+        this.publishedVersion = -1L;
+        this.unpublished = 0;
         this.lastCause = null;
         this.actions = actions;
-        this.r = new Random(3771);
+        this.planner = planner;
+        this.r = new Random(seed);
+        this.epsilon = .1f;
+        this.statisticsName = null;
+        this.budget = null;
+        this.closed = false;
+    }
+
+    private EvertedAgent(EvertedAgent<Sensor, Motor> original) {
+        this.seed = original.seed;
+        this.threshold = original.threshold;
+        this.execution = original.execution;
+        this.library = original.library;
+        this.h = original.h == null ? null : original.h.fork();
+        this.observation = original.observation.fork();
+        this.context = original.context == null ? null : this.h.getContext();
+        this.contextRequested = false;
+        this.publishedVersion = -1L;
+        this.unpublished = 0;
+        this.publish();
+        this.lastCause = original.lastCause;
+        this.actions = original.actions;
+        this.planner = original.planner.fork();
+        this.r = Randoms.copy(original.r);
+        this.epsilon = original.epsilon;
+        this.statisticsName = null;
+        this.budget = null;
+        this.closed = false;
+    }
+
+    /**
+     * Forks are cheap, they share all models with this agent until either side learns something different. A fork
+     * has its own level workers and must be closed separately.
+     *
+     * @return agent that continues independently from the current state
+     */
+    public EvertedAgent<Sensor, Motor> fork() {
+        return new EvertedAgent<>(this);
+    }
+
+    private StochasticProcess<Tuple<Sensor, Motor>, Sensor> getModel() {
+        return this.context == null ? this.observation : this.context;
     }
 
     private Motor act(Sensor s) {
+        if (this.epsilon <= this.r.nextFloat()) {
+            Motor m = this.planner.act(this.getModel(), s);
+            if (m != null) {
+                return m;
+            }
+        }
         Iterator<Motor> it = this.actions.iterator();
         Motor eachMotor = null;
         for (int p = this.r.nextInt(this.actions.size()); p-- >= 0; eachMotor = it.next()) ;
@@ -40,22 +145,189 @@ public class EvertedAgent<Sensor, Motor> implements Agent<Sensor, Motor> {
         return this.observation.getFrequency(cause, effect) < this.observation.getMaxFrequency(cause);
     }
 
+    private void checkClosed() {
+        if (this.closed) {
+            throw new IllegalStateException("Agent is closed.");
+        }
+    }
+
+    /**
+     * @throws IllegalStateException if the agent is closed
+     */
     @Override
     public Motor interact(Sensor s, double reward) {
+        this.checkClosed();
         if (this.lastCause != null) {
-            if (this.isBreakdown(this.lastCause, s)) {
-                if (this.h == null) {
-                    this.h = new EvertedHierarchy<>(threshold);
-                }
-                this.context = this.h.getNextContext(this.observation, this.lastCause);
+            // credit the model the transition was observed in, a breakdown in perceive moves on to the next one
+            StochasticProcess<Tuple<Sensor, Motor>, Sensor> model = this.getModel();
+            this.perceive(this.lastCause, s, 1);
+            this.planner.update(model, this.lastCause, s, reward);
+        }
+        Motor m = this.act(s);
+        this.lastCause = new Tuple<>(s, m);
+        this.publishIfDue();
+        return m;
+    }
+
+    /**
+     * @throws IllegalStateException if the agent is closed
+     */
+    @Override
+    public Motor interact(Sensor[] sensors, Motor[] motors, double[] rewards) {
+        this.checkClosed();
+        if (sensors.length < 1 || motors.length != sensors.length - 1 || rewards.length != sensors.length) {
+            throw new IllegalArgumentException("Need one motor between and one reward for every sensor.");
+        }
+        StochasticProcess<Tuple<Sensor, Motor>, Sensor> model;
+        if (this.lastCause != null) {
+            model = this.getModel();
+            this.perceive(this.lastCause, sensors[0], 1);
+            this.planner.update(model, this.lastCause, sensors[0], rewards[0]);
+        }
+        Tuple<Sensor, Motor> cause;
+        int run;
+        for (int i = 0; i < motors.length; i += run) {
+            run = Hierarchy.getRunLength(sensors, motors, i, motors.length);
+            cause = new Tuple<>(sensors[i], motors[i]);
+            model = this.getModel();
+            this.perceive(cause, sensors[i + 1], run);
+            for (int k = i + 1; k <= i + run; k++) {
+                this.planner.update(model, cause, sensors[i + 1], rewards[k]);
             }
-            this.observation.store(this.lastCause, s);
         }
+        Sensor s = sensors[motors.length];
         Motor m = this.act(s);
         this.lastCause = new Tuple<>(s, m);
+        // once for the whole block
+        this.publishIfDue();
         return m;
     }
 
+    /**
+     * Only the first of count identical transitions can break down.
+     */
+    private void perceive(Tuple<Sensor, Motor> cause, Sensor s, int count) {
+        if (this.isBreakdown(cause, s)) {
+            BreakdownEvent event = new BreakdownEvent();
+            if (event.shouldCommit()) {
+                event.level = 0;
+                event.modelId = this.context == null ? -1 : this.context.getId();
+                event.commit();
+            }
+            if (this.h == null && (this.budget == null || !this.budget.isEnabled(PressureResponse.STOP_GROWTH) || !this.budget.isExceeded())) {
+                this.h = this.library == null ? new EvertedHierarchy<Sensor, Motor>(threshold, false, this.execution) : new EvertedHierarchy<>(threshold, this.execution, this.library);
+                if (this.statisticsName != null) {
+                    this.h.registerStatistics(this.statisticsName);
+                }
+                if (this.budget != null) {
+                    this.h.setBudget(this.budget);
+                }
+            }
+            if (this.h != null) {
+                this.context = this.h.getNextContext(this.observation, cause);
+            }
+        }
+        this.observation.store(cause, s, count);
+        this.unpublished += count;
+    }
+
+    private void publishIfDue() {
+        if (this.contextRequested || Hierarchy.SNAPSHOT_INTERVAL <= this.unpublished) {
+            this.publish();
+        }
+    }
+
+    private void publish() {
+        this.contextRequested = false;
+        this.unpublished = 0;
+        if (this.context == null) {
+            return;
+        }
+        if (this.publishedVersion != this.context.getVersion() || this.publishedContext == null || this.publishedContext.getId() != this.context.getId()) {
+            this.publishedVersion = this.context.getVersion();
+            this.publishedContext = this.context.fork();
+        }
+    }
+
+    @Override
+    public long getSeed() {
+        return this.seed;
+    }
+
+    /**
+     * @return first level types, still written while this agent learns, see getLibrary to share them, null before the
+     * first breakdown
+     */
+    public StochasticProcessFactory<Tuple<Sensor, Motor>, Sensor> getFactory() {
+        return this.h == null ? null : this.h.getFactory();
+    }
+
+    /**
+     * @return read-only copy of the first level types as they are now, pass it to other agents as a library while this
+     * agent keeps learning, null before the first breakdown
+     */
+    public StochasticProcessFactory<Tuple<Sensor, Motor>, Sensor> getLibrary() {
+        return this.h == null ? null : this.h.getFactory().library();
+    }
+
+    /**
+     * Exposes the statistics of every level as MBeans under the given name, also if the hierarchy is created later.
+     */
+    public void registerStatistics(String name) {
+        this.flush();
+        if (this.h != null) {
+            this.h.registerStatistics(name);
+        }
+        this.statisticsName = name;
+    }
+
+    /**
+     * Charges the types of every level to the budget, also if the hierarchy is created later.
+     */
+    public void setBudget(MemoryBudget budget) {
+        this.flush();
+        if (this.h != null) {
+            this.h.setBudget(budget);
+        }
+        this.budget = budget;
+    }
+
+    /**
+     * @return estimated heap bytes of the types of every level
+     */
+    public long getEstimatedBytes() {
+        return this.h == null ? 0L : this.h.getEstimatedBytes();
+    }
+
+    public void unregisterStatistics() {
+        this.flush();
+        if (this.h != null) {
+            this.h.unregisterStatistics();
+        }
+        this.statisticsName = null;
+    }
+
+    /**
+     * Blocks until every level of the hierarchy has processed the observations so far.
+     */
+    public void flush() {
+        if (this.h != null) {
+            this.h.flush();
+        }
+    }
+
+    /**
+     * Stops the level workers after they have processed the observations so far. Interaction fails afterwards,
+     * structure and trace can still be read.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        if (this.h != null) {
+            this.h.close();
+        }
+    }
+
     @Override
     public List<Integer> getTrace() {
         return this.h.getTrace();
@@ -69,11 +341,23 @@ public class EvertedAgent<Sensor, Motor> implements Agent<Sensor, Motor> {
         return this.h.getStructure();
     }
 
+    /**
+     * Generates up to length sensors following s by sampling the current context, or the observations if there is no
+     * context yet.
+     */
+    public List<Sensor> rollout(Sensor s, int length, Random random) {
+        return Rollout.generate(this.getModel(), s, length, random);
+    }
+
     @Override
     public Sensor predict(Tuple<Sensor, Motor> cause) {
-        if (this.context == null) {
+        // never reads the live context, which the hierarchy may be writing, sees it as of the interact after the previous
+        // call or at most Hierarchy.SNAPSHOT_INTERVAL transitions before the last one
+        this.contextRequested = true;
+        StochasticProcess<Tuple<Sensor, Motor>, Sensor> context = this.publishedContext;
+        if (context == null) {
             return cause.a;
         }
-        return this.context.getEffect(cause);
+        return context.getEffect(cause);
     }
 }
@@ -1,10 +1,24 @@
 package net.sophomatics.agents;
 
+import net.sophomatics.hierarchy.Execution;
 import net.sophomatics.hierarchy.Hierarchy;
+import net.sophomatics.hierarchy.MemoryBudget;
+import net.sophomatics.hierarchy.Pretrainer;
+import net.sophomatics.planner.Planner;
+import net.sophomatics.planner.PrioritizedSweeping;
 import net.sophomatics.stochastic_process.StochasticProcess;
+import net.sophomatics.stochastic_process.StochasticProcessFactory;
+import net.sophomatics.util.Randoms;
+import net.sophomatics.util.RingBuffer;
 import net.sophomatics.util.Tuple;
 
+import java.io.Closeable;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
 /**
  * Agent class
@@ -13,21 +27,284 @@ import java.util.*;
  * @version 1.0
  * @since 2015-08-10
  */
-public class HierarchicalAgent<Sensor, Motor> implements Agent<Sensor, Motor> {
+public class HierarchicalAgent<Sensor, Motor> implements Agent<Sensor, Motor>, Closeable {
+    public final static long DEFAULT_SEED = 3771L;
+    private final long seed;
     private final Random r;
     private final Hierarchy<Sensor, Motor> h;
     private final Set<Motor> actions;
+    private final Planner<Sensor, Motor> planner;
+    private final ReentrantLock learning;
+    private final RingBuffer<Transition<Sensor, Motor>> transitions;
+    private final Thread learner;
+    private final int maxStaleness;
+    private final AtomicLong learned;
+    private volatile Throwable failure;
+    private volatile boolean closed;
+    private long observed;
     private Sensor lastSensor;
     private Motor lastMotor;
     private float epsilon;
     private int noInteractions;
 
     public HierarchicalAgent(float threshold, Set<Motor> actions) {
-        this.r = new Random(3771);
-        this.h = new Hierarchy<>(threshold, this.r);
+        this(threshold, actions, new PrioritizedSweeping<Sensor, Motor>());
+    }
+
+    public HierarchicalAgent(float threshold, Set<Motor> actions, Planner<Sensor, Motor> planner) {
+        this(threshold, actions, planner, 0);
+    }
+
+    /**
+     * @param maxStaleness number of observed transitions the hierarchy may lag behind, 0 learns synchronously. Any
+     *                     other value learns on a background thread and interact only waits if the lag reaches it.
+     */
+    public HierarchicalAgent(float threshold, Set<Motor> actions, Planner<Sensor, Motor> planner, int maxStaleness) {
+        this(threshold, actions, planner, maxStaleness, Execution.SERIAL);
+    }
+
+    /**
+     * @param execution how the levels above the first are executed
+     */
+    public HierarchicalAgent(float threshold, Set<Motor> actions, Planner<Sensor, Motor> planner, int maxStaleness, Execution execution) {
+        this(threshold, actions, planner, maxStaleness, execution, null);
+    }
+
+    /**
+     * @param library first level models shared with other agents, see getLibrary, null to learn them from scratch
+     */
+    public HierarchicalAgent(float threshold, Set<Motor> actions, Planner<Sensor, Motor> planner, int maxStaleness, Execution execution, StochasticProcessFactory<Tuple<Sensor, Motor>, Sensor> library) {
+        this(threshold, actions, planner, maxStaleness, execution, library, DEFAULT_SEED);
+    }
+
+    /**
+     * @param seed seed of all random decisions, serial agents with the same seed and input behave identically
+     */
+    public HierarchicalAgent(float threshold, Set<Motor> actions, Planner<Sensor, Motor> planner, int maxStaleness, Execution execution, StochasticProcessFactory<Tuple<Sensor, Motor>, Sensor> library, long seed) {
+        if (maxStaleness < 0) {
+            throw new IllegalArgumentException("Staleness must not be negative.");
+        }
+        this.seed = seed;
+        this.r = new Random(seed);
+        this.h = library == null ? new Hierarchy<Sensor, Motor>(threshold, this.r, false, execution) : new Hierarchy<>(threshold, this.r, execution, library);
         this.actions = actions;
+        this.planner = planner;
+        this.learning = new ReentrantLock();
+        this.maxStaleness = maxStaleness;
+        this.learned = new AtomicLong(0L);
+        this.observed = 0L;
         this.epsilon = .1f;
         this.noInteractions = 0;
+        this.failure = null;
+        this.closed = false;
+        this.transitions = maxStaleness < 1 ? null : new RingBuffer<Transition<Sensor, Motor>>(maxStaleness);
+        this.learner = this.startLearner();
+    }
+
+    private HierarchicalAgent(HierarchicalAgent<Sensor, Motor> original) {
+        this.seed = original.seed;
+        this.r = Randoms.copy(original.r);
+        this.h = original.h.fork(this.r);
+        this.actions = original.actions;
+        this.planner = original.planner.fork();
+        this.learning = new ReentrantLock();
+        this.maxStaleness = original.maxStaleness;
+        this.learned = new AtomicLong(original.observed);
+        this.observed = original.observed;
+        this.lastSensor = original.lastSensor;
+        this.lastMotor = original.lastMotor;
+        this.epsilon = original.epsilon;
+        this.noInteractions = original.noInteractions;
+        this.failure = null;
+        this.closed = false;
+        this.transitions = original.transitions == null ? null : new RingBuffer<Transition<Sensor, Motor>>(this.maxStaleness);
+        this.learner = this.startLearner();
+    }
+
+    private Thread startLearner() {
+        if (this.transitions == null) {
+            return null;
+        }
+        Thread learner = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                HierarchicalAgent.this.learn();
+            }
+        }, "learner-" + this.hashCode());
+        learner.setDaemon(true);
+        learner.start();
+        return learner;
+    }
+
+    /**
+     * Forks are cheap, they share all models with this agent until either side learns something different. Forks can
+     * interact in parallel with each other and with this agent. A fork has its own learner and level workers, if any, and
+     * must be closed separately.
+     *
+     * @return agent that continues independently from the current state
+     */
+    public HierarchicalAgent<Sensor, Motor> fork() {
+        this.flush();
+        this.learning.lock();
+        try {
+            return new HierarchicalAgent<>(this);
+        } finally {
+            this.learning.unlock();
+        }
+    }
+
+    private void learn() {
+        Transition<Sensor, Motor> transition;
+        while (!Thread.currentThread().isInterrupted()) {
+            transition = this.transitions.poll();
+            if (transition == null) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+                continue;
+            }
+            this.learning.lock();
+            try {
+                this.perceive(transition);
+            } catch (RuntimeException | Error e) {
+                // the hierarchy may be inconsistent now, stop learning and report to the interacting thread
+                this.failure = e;
+                return;
+            } finally {
+                this.learning.unlock();
+            }
+            this.learned.incrementAndGet();
+        }
+    }
+
+    private void checkLearner() {
+        if (this.failure != null) {
+            throw new IllegalStateException("Learner failed.", this.failure);
+        } else if (this.closed) {
+            throw new IllegalStateException("Agent is closed.");
+        }
+    }
+
+    private void perceive(Transition<Sensor, Motor> transition) {
+        // credit the context the transition was observed in, a breakdown in perceive moves on to the next one
+        StochasticProcess<Tuple<Sensor, Motor>, Sensor> context = this.h.getContext();
+        this.h.perceive(transition.s0, transition.m0, transition.s1);
+        this.planner.update(context, new Tuple<>(transition.s0, transition.m0), transition.s1, transition.reward);
+    }
+
+    /**
+     * Blocks until every level of the hierarchy has learned every transition observed so far.
+     *
+     * @throws IllegalStateException if the learner failed or the agent is closed
+     */
+    public void flush() {
+        this.checkLearner();
+        if (this.transitions != null) {
+            while (this.learned.get() < this.observed) {
+                this.checkLearner();
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+            }
+        }
+        this.h.flush();
+    }
+
+    /**
+     * Stops the learner thread and the level workers, transitions the learner has not learned yet are dropped, see
+     * flush. Interaction fails afterwards, structure and trace can still be read.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        if (this.learner != null) {
+            this.learner.interrupt();
+            try {
+                this.learner.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        this.h.close();
+    }
+
+    /**
+     * Trains the first level on corpus in parallel, interaction continues from the end of corpus.
+     */
+    public void pretrain(List<Sensor> corpus, Motor motor, int workers) throws InterruptedException {
+        this.flush();
+        this.learning.lock();
+        try {
+            new Pretrainer<Sensor, Motor>(workers).pretrain(this.h, corpus, motor);
+        } finally {
+            this.learning.unlock();
+        }
+    }
+
+    /**
+     * @return first level models, still written while this agent learns, see getLibrary to share them
+     */
+    public StochasticProcessFactory<Tuple<Sensor, Motor>, Sensor> getFactory() {
+        this.flush();
+        return this.h.getFactory();
+    }
+
+    /**
+     * @return read-only copy of the first level models as they are now, pass it to other agents as a library while
+     * this agent keeps learning
+     */
+    public StochasticProcessFactory<Tuple<Sensor, Motor>, Sensor> getLibrary() {
+        this.flush();
+        this.learning.lock();
+        try {
+            return this.h.getFactory().library();
+        } finally {
+            this.learning.unlock();
+        }
+    }
+
+    /**
+     * Exposes the statistics of every level as MBeans under the given name, see Hierarchy.registerStatistics.
+     */
+    public void registerStatistics(String name) {
+        this.flush();
+        this.learning.lock();
+        try {
+            this.h.registerStatistics(name);
+        } finally {
+            this.learning.unlock();
+        }
+    }
+
+    /**
+     * Charges the models of every level to the budget, see Hierarchy.setBudget.
+     */
+    public void setBudget(MemoryBudget budget) {
+        this.flush();
+        this.learning.lock();
+        try {
+            this.h.setBudget(budget);
+        } finally {
+            this.learning.unlock();
+        }
+    }
+
+    /**
+     * @return estimated heap bytes of the models of every level
+     */
+    public long getEstimatedBytes() {
+        return this.h.getEstimatedBytes();
+    }
+
+    public void unregisterStatistics() {
+        this.flush();
+        this.learning.lock();
+        try {
+            this.h.unregisterStatistics();
+        } finally {
+            this.learning.unlock();
+        }
+    }
+
+    @Override
+    public long getSeed() {
+        return this.seed;
     }
 
     @Override
@@ -37,7 +314,13 @@ public class HierarchicalAgent<Sensor, Motor> implements Agent<Sensor, Motor> {
 
     @Override
     public List<Integer> getTrace() {
-        List<StochasticProcess> lMp = h.getTrace();
+        this.learning.lock();
+        List<StochasticProcess> lMp;
+        try {
+            lMp = h.getTrace();
+        } finally {
+            this.learning.unlock();
+        }
         List<Integer> lInt = new ArrayList<>(lMp.size());
         for (StochasticProcess eachMp : lMp) {
             lInt.add(eachMp.getId());
@@ -47,7 +330,12 @@ public class HierarchicalAgent<Sensor, Motor> implements Agent<Sensor, Motor> {
 
     @Override
     public List<Integer> getStructure() {
-        return this.h.getStructure();
+        this.learning.lock();
+        try {
+            return this.h.getStructure();
+        } finally {
+            this.learning.unlock();
+        }
     }
 
     private Motor randomMotor() {
@@ -61,13 +349,49 @@ public class HierarchicalAgent<Sensor, Motor> implements Agent<Sensor, Motor> {
         if (r.nextFloat() < this.epsilon || this.noInteractions < 1) {
             return randomMotor();
         }
-        return h.act(s);
+        // never wait for the learner, explore while it holds the hierarchy
+        if (!this.learning.tryLock()) {
+            return randomMotor();
+        }
+        Supplier<Motor> decision;
+        try {
+            decision = this.planner.prepare(this.h.getContext(), s);
+        } finally {
+            this.learning.unlock();
+        }
+        // the learner may continue while the planner decides
+        Motor m = decision.get();
+        if (m != null) {
+            return m;
+        }
+        if (!this.learning.tryLock()) {
+            return randomMotor();
+        }
+        try {
+            m = h.act(s);
+        } finally {
+            this.learning.unlock();
+        }
+        return m == null ? randomMotor() : m;
     }
 
+    /**
+     * @throws IllegalStateException if the learner failed or the agent is closed
+     */
     @Override
     public Motor interact(Sensor s, double reward) {
+        this.checkLearner();
         if (lastSensor != null && lastMotor != null) {
-            h.perceive(lastSensor, lastMotor, s);
+            Transition<Sensor, Motor> transition = new Transition<>(lastSensor, lastMotor, s, reward);
+            if (this.transitions == null) {
+                this.perceive(transition);
+            } else {
+                while (this.maxStaleness <= this.observed - this.learned.get() || !this.transitions.offer(transition)) {
+                    this.checkLearner();
+                    LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(10));
+                }
+            }
+            this.observed++;
         }
         lastMotor = this.act(s);
         lastSensor = s;
@@ -76,8 +400,64 @@ public class HierarchicalAgent<Sensor, Motor> implements Agent<Sensor, Motor> {
         return lastMotor;
     }
 
+    @Override
+    public Motor interact(Sensor[] sensors, Motor[] motors, double[] rewards) {
+        if (sensors.length < 1 || motors.length != sensors.length - 1 || rewards.length != sensors.length) {
+            throw new IllegalArgumentException("Need one motor between and one reward for every sensor.");
+        }
+        this.flush();
+        this.learning.lock();
+        // a reader sees the whole block or none of it
+        this.h.beginBlock();
+        try {
+            if (lastSensor != null && lastMotor != null) {
+                this.perceive(new Transition<>(lastSensor, lastMotor, sensors[0], rewards[0]));
+            }
+            StochasticProcess<Tuple<Sensor, Motor>, Sensor> context;
+            Tuple<Sensor, Motor> cause;
+            int run;
+            for (int i = 0; i < motors.length; i += run) {
+                run = Hierarchy.getRunLength(sensors, motors, i, motors.length);
+                cause = new Tuple<>(sensors[i], motors[i]);
+                context = this.h.getContext();
+                this.h.perceive(cause, sensors[i + 1], run);
+                for (int k = i + 1; k <= i + run; k++) {
+                    this.planner.update(context, cause, sensors[i + 1], rewards[k]);
+                }
+            }
+        } finally {
+            this.h.endBlock();
+            this.learning.unlock();
+        }
+        int learned = lastSensor != null && lastMotor != null ? sensors.length : motors.length;
+        this.observed += learned;
+        this.learned.addAndGet(learned);
+
+        lastMotor = this.act(sensors[motors.length]);
+        lastSensor = sensors[motors.length];
+
+        this.noInteractions += sensors.length;
+        return lastMotor;
+    }
+
     @Override
     public Sensor predict(Tuple<Sensor, Motor> cause) {
-        return this.h.predict(cause);
+        // never blocks the learner, sees the first transition or block learned after the previous call, and is never more
+        // than Hierarchy.SNAPSHOT_INTERVAL transitions behind
+        return this.h.predictSnapshot(cause);
+    }
+
+    private static class Transition<Sensor, Motor> {
+        private final Sensor s0;
+        private final Motor m0;
+        private final Sensor s1;
+        private final double reward;
+
+        private Transition(Sensor s0, Motor m0, Sensor s1, double reward) {
+            this.s0 = s0;
+            this.m0 = m0;
+            this.s1 = s1;
+            this.reward = reward;
+        }
     }
 }
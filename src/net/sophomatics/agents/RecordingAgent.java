@@ -0,0 +1,88 @@
+package net.sophomatics.agents;
+
+import net.sophomatics.trace.Codec;
+import net.sophomatics.trace.TraceWriter;
+import net.sophomatics.util.Tuple;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Records every interaction step of a freshly created agent together with its seed to a binary trace. The trace can
+ * be fed to another agent with a TraceReplayer.
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-22
+ */
+public class RecordingAgent<Sensor, Motor> implements Agent<Sensor, Motor>, Closeable {
+    private final Agent<Sensor, Motor> agent;
+    private final TraceWriter<Sensor, Motor> writer;
+
+    public RecordingAgent(Agent<Sensor, Motor> agent, Path path, Codec<Sensor> sensorCodec, Codec<Motor> motorCodec) throws IOException {
+        this.agent = agent;
+        this.writer = new TraceWriter<>(path, agent.getSeed(), sensorCodec, motorCodec);
+    }
+
+    public Agent<Sensor, Motor> getAgent() {
+        return this.agent;
+    }
+
+    @Override
+    public List<Integer> getTrace() {
+        return this.agent.getTrace();
+    }
+
+    @Override
+    public List<Integer> getStructure() {
+        return this.agent.getStructure();
+    }
+
+    @Override
+    public long getSeed() {
+        return this.agent.getSeed();
+    }
+
+    @Override
+    public String toString() {
+        return this.agent.toString();
+    }
+
+    @Override
+    public Motor interact(Sensor s, double reward) {
+        Motor m = this.agent.interact(s, reward);
+        try {
+            this.writer.write(TraceWriter.STEP, s, m, reward);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return m;
+    }
+
+    @Override
+    public Motor interact(Sensor[] sensors, Motor[] motors, double[] rewards) {
+        Motor m = this.agent.interact(sensors, motors, rewards);
+        try {
+            for (int i = 0; i < motors.length; i++) {
+                this.writer.write(TraceWriter.BLOCK, sensors[i], motors[i], rewards[i]);
+            }
+            this.writer.write(TraceWriter.BLOCK_END, sensors[motors.length], m, rewards[motors.length]);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return m;
+    }
+
+    @Override
+    public Sensor predict(Tuple<Sensor, Motor> cause) {
+        return this.agent.predict(cause);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.writer.close();
+    }
+}
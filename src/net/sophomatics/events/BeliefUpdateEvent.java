@@ -0,0 +1,28 @@
+package net.sophomatics.events;
+
+import jdk.jfr.*;
+
+/**
+ * A level settled on its current model after a breakdown, either matching the segment it observed or taking the model
+ * that the level above predicts after the cause.
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-22
+ */
+@Name("net.sophomatics.BeliefUpdate")
+@Label("Belief Update")
+@Category({"Sophomatics", "Hierarchy"})
+@StackTrace(false)
+public class BeliefUpdateEvent extends Event {
+    @Label("Level")
+    public int level;
+
+    @Label("States")
+    @Description("Models of the level")
+    public int states;
+
+    @Label("Motor")
+    @Description("Whether the model was predicted after the cause, matched to the observed segment otherwise")
+    public boolean motor;
+}
@@ -0,0 +1,23 @@
+package net.sophomatics.events;
+
+import jdk.jfr.*;
+
+/**
+ * A level could not explain a transition with its current model. For everted agents level 0 is the agent itself.
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-22
+ */
+@Name("net.sophomatics.Breakdown")
+@Label("Breakdown")
+@Category({"Sophomatics", "Hierarchy"})
+@StackTrace(false)
+public class BreakdownEvent extends Event {
+    @Label("Level")
+    public int level;
+
+    @Label("Model Id")
+    @Description("Model the level was in, -1 for none")
+    public int modelId;
+}
@@ -0,0 +1,23 @@
+package net.sophomatics.events;
+
+import jdk.jfr.*;
+
+/**
+ * The frequencies of one model were added to another.
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-22
+ */
+@Name("net.sophomatics.Merge")
+@Label("Model Merge")
+@Category({"Sophomatics", "Models"})
+@StackTrace(false)
+public class MergeEvent extends Event {
+    @Label("Model Id")
+    public int modelId;
+
+    @Label("Cells")
+    @Description("Number of cause effect pairs added")
+    public int cells;
+}
@@ -0,0 +1,22 @@
+package net.sophomatics.events;
+
+import jdk.jfr.*;
+
+/**
+ * A factory created a new model.
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-22
+ */
+@Name("net.sophomatics.ModelCreation")
+@Label("Model Creation")
+@Category({"Sophomatics", "Models"})
+@StackTrace(false)
+public class ModelCreationEvent extends Event {
+    @Label("Model Id")
+    public int modelId;
+
+    @Label("Off-heap")
+    public boolean offHeap;
+}
@@ -0,0 +1,30 @@
+package net.sophomatics.events;
+
+import jdk.jfr.*;
+
+/**
+ * A level compared its observations to all models of the level to find the most similar one.
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-22
+ */
+@Name("net.sophomatics.ModelSearch")
+@Label("Model Search")
+@Category({"Sophomatics", "Hierarchy"})
+@StackTrace(false)
+public class ModelSearchEvent extends Event {
+    @Label("Level")
+    public int level;
+
+    @Label("Candidates")
+    public int candidates;
+
+    @Label("Best Similarity")
+    @Description("Highest similarity found, bounded similarities below the threshold are upper bounds")
+    public float bestSimilarity;
+
+    @Label("Matched")
+    @Description("Whether a model reached the threshold, a new model is created otherwise")
+    public boolean matched;
+}
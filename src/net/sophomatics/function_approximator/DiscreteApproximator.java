@@ -2,34 +2,199 @@ package net.sophomatics.function_approximator;
 
 import net.sophomatics.util.Identifiable;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * Created by wernsdorfer on 10.08.2015.
+ * <p>
+ * Values live in open addressing tables of primitive floats. In concurrent mode keys are striped over independently
+ * locked segments.
  */
 public class DiscreteApproximator<Condition> extends Identifiable implements FunctionApproximator<Condition> {
-    private final Map<Condition, Float> table;
+    private final Segment[] segments;
     private final float alpha;
+    private final boolean concurrent;
 
     public DiscreteApproximator(int id) {
+        this(id, .1f, 1);
+    }
+
+    /**
+     * @param stripes number of independently locked segments, 1 disables locking
+     */
+    public DiscreteApproximator(int id, float alpha, int stripes) {
         super(id);
-        this.table = new HashMap<>();
-        this.alpha = .1f;
+        if (stripes < 1 || Integer.bitCount(stripes) != 1) {
+            throw new IllegalArgumentException("Number of stripes must be a power of two.");
+        }
+        this.alpha = alpha;
+        this.concurrent = 1 < stripes;
+        this.segments = new Segment[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.segments[i] = new Segment();
+        }
+    }
+
+    private static int spread(Object key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private Segment getSegment(int hash) {
+        // high bits pick the segment, low bits the slot within it
+        return this.segments[(hash >>> 24) & (this.segments.length - 1)];
     }
 
     @Override
     public void approximate(Condition cause, float newValue) {
-        float oldValue = this.getValue(cause);
-        this.table.put(cause, oldValue + this.alpha * (newValue - oldValue));
+        int hash = spread(cause);
+        Segment segment = this.getSegment(hash);
+        if (this.concurrent) {
+            synchronized (segment) {
+                segment.approximate(cause, hash, newValue, this.alpha);
+            }
+        } else {
+            segment.approximate(cause, hash, newValue, this.alpha);
+        }
+    }
+
+    @Override
+    public void approximate(Condition[] causes, float[] values) {
+        if (causes.length != values.length) {
+            throw new IllegalArgumentException("Need one value per cause.");
+        }
+        for (int i = 0; i < causes.length; i++) {
+            this.approximate(causes[i], values[i]);
+        }
     }
 
     @Override
     public float getValue(Condition cause) {
-        Float v = this.table.get(cause);
-        if (v == null) {
-            return 0;
+        int hash = spread(cause);
+        Segment segment = this.getSegment(hash);
+        if (this.concurrent) {
+            synchronized (segment) {
+                return segment.getValue(cause, hash);
+            }
+        }
+        return segment.getValue(cause, hash);
+    }
+
+    @Override
+    public void getValues(Condition[] causes, float[] values) {
+        if (causes.length != values.length) {
+            throw new IllegalArgumentException("Need one value per cause.");
+        }
+        for (int i = 0; i < causes.length; i++) {
+            values[i] = this.getValue(causes[i]);
+        }
+    }
+
+    /**
+     * @return independent approximator with the same values
+     */
+    public DiscreteApproximator<Condition> copy() {
+        DiscreteApproximator<Condition> copy = new DiscreteApproximator<>(this.getId(), this.alpha, this.segments.length);
+        for (int i = 0; i < this.segments.length; i++) {
+            if (this.concurrent) {
+                synchronized (this.segments[i]) {
+                    this.segments[i].copyTo(copy.segments[i]);
+                }
+            } else {
+                this.segments[i].copyTo(copy.segments[i]);
+            }
+        }
+        return copy;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment eachSegment : this.segments) {
+            if (this.concurrent) {
+                synchronized (eachSegment) {
+                    size += eachSegment.size;
+                }
+            } else {
+                size += eachSegment.size;
+            }
+        }
+        return size;
+    }
+
+    private static class Segment {
+        private final static int INITIAL_CAPACITY = 16;
+        private Object[] keys;
+        private int[] hashes;
+        private float[] values;
+        private int size;
+
+        private Segment() {
+            this.keys = new Object[INITIAL_CAPACITY];
+            this.hashes = new int[INITIAL_CAPACITY];
+            this.values = new float[INITIAL_CAPACITY];
+            this.size = 0;
+        }
+
+        private void copyTo(Segment other) {
+            other.keys = this.keys.clone();
+            other.hashes = this.hashes.clone();
+            other.values = this.values.clone();
+            other.size = this.size;
+        }
+
+        private int find(Object key, int hash) {
+            int mask = this.keys.length - 1;
+            for (int i = hash & mask; this.keys[i] != null; i = (i + 1) & mask) {
+                if (this.hashes[i] == hash && this.keys[i].equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private float getValue(Object key, int hash) {
+            int i = this.find(key, hash);
+            return i < 0 ? 0f : this.values[i];
+        }
+
+        private void approximate(Object key, int hash, float newValue, float alpha) {
+            int i = this.find(key, hash);
+            if (i < 0) {
+                i = this.insert(key, hash);
+            }
+            this.values[i] += alpha * (newValue - this.values[i]);
+        }
+
+        private int insert(Object key, int hash) {
+            if (this.keys.length * 3 <= (this.size + 1) * 4) {
+                this.resize(this.keys.length << 1);
+            }
+            int mask = this.keys.length - 1;
+            int i;
+            for (i = hash & mask; this.keys[i] != null; i = (i + 1) & mask) ;
+            this.keys[i] = key;
+            this.hashes[i] = hash;
+            this.values[i] = 0f;
+            this.size++;
+            return i;
+        }
+
+        private void resize(int capacity) {
+            Object[] oldKeys = this.keys;
+            int[] oldHashes = this.hashes;
+            float[] oldValues = this.values;
+            this.keys = new Object[capacity];
+            this.hashes = new int[capacity];
+            this.values = new float[capacity];
+            int mask = capacity - 1;
+            int j;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == null) {
+                    continue;
+                }
+                for (j = oldHashes[i] & mask; this.keys[j] != null; j = (j + 1) & mask) ;
+                this.keys[j] = oldKeys[i];
+                this.hashes[j] = oldHashes[i];
+                this.values[j] = oldValues[i];
+            }
         }
-        return v;
     }
 }
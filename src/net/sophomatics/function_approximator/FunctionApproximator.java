@@ -6,5 +6,15 @@ package net.sophomatics.function_approximator;
 public interface FunctionApproximator<Condition> {
     void approximate(Condition cause, float value);
 
+    /**
+     * Moves the value of each causes[i] towards values[i], equivalent to calling approximate for each pair in order.
+     */
+    void approximate(Condition[] causes, float[] values);
+
     float getValue(Condition cause);
+
+    /**
+     * Writes the value of each causes[i] to values[i].
+     */
+    void getValues(Condition[] causes, float[] values);
 }
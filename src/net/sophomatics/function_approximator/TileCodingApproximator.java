@@ -0,0 +1,90 @@
+package net.sophomatics.function_approximator;
+
+/**
+ * Hashed tile coding over real valued inputs. Every tiling is offset by a fraction of the tile width, active tiles are
+ * hashed into one fixed weight table so memory stays bounded however large the input space is.
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-18
+ */
+public class TileCodingApproximator implements FunctionApproximator<float[]> {
+    private final float[] weights;
+    private final int tilings;
+    private final float tileWidth;
+    private final float alpha;
+
+    /**
+     * @param tilings   number of overlapping tilings, each input activates one tile per tiling
+     * @param tileWidth width of a tile in every dimension
+     * @param memory    number of weights, a power of two
+     * @param alpha     learning rate, split evenly over the active tiles
+     */
+    public TileCodingApproximator(int tilings, float tileWidth, int memory, float alpha) {
+        if (tilings < 1 || tileWidth <= 0f) {
+            throw new IllegalArgumentException("Need at least one tiling of positive width.");
+        } else if (memory < 1 || Integer.bitCount(memory) != 1) {
+            throw new IllegalArgumentException("Memory must be a power of two.");
+        }
+        this.weights = new float[memory];
+        this.tilings = tilings;
+        this.tileWidth = tileWidth;
+        this.alpha = alpha;
+    }
+
+    private int getTile(float[] cause, int tiling) {
+        int h = tiling * 0x9E3779B9;
+        int coordinate;
+        for (float eachValue : cause) {
+            coordinate = (int) Math.floor(eachValue / this.tileWidth + (float) tiling / this.tilings);
+            h = 31 * h + coordinate;
+            h ^= h >>> 15;
+            h *= 0x85EBCA6B;
+        }
+        h ^= h >>> 13;
+        return h & (this.weights.length - 1);
+    }
+
+    @Override
+    public void approximate(float[] cause, float newValue) {
+        int[] tiles = new int[this.tilings];
+        float value = 0f;
+        for (int t = 0; t < this.tilings; t++) {
+            tiles[t] = this.getTile(cause, t);
+            value += this.weights[tiles[t]];
+        }
+        float step = this.alpha * (newValue - value) / this.tilings;
+        for (int t = 0; t < this.tilings; t++) {
+            this.weights[tiles[t]] += step;
+        }
+    }
+
+    @Override
+    public void approximate(float[][] causes, float[] values) {
+        if (causes.length != values.length) {
+            throw new IllegalArgumentException("Need one value per cause.");
+        }
+        for (int i = 0; i < causes.length; i++) {
+            this.approximate(causes[i], values[i]);
+        }
+    }
+
+    @Override
+    public float getValue(float[] cause) {
+        float value = 0f;
+        for (int t = 0; t < this.tilings; t++) {
+            value += this.weights[this.getTile(cause, t)];
+        }
+        return value;
+    }
+
+    @Override
+    public void getValues(float[][] causes, float[] values) {
+        if (causes.length != values.length) {
+            throw new IllegalArgumentException("Need one value per cause.");
+        }
+        for (int i = 0; i < causes.length; i++) {
+            values[i] = this.getValue(causes[i]);
+        }
+    }
+}
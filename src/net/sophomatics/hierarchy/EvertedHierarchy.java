@@ -1,5 +1,7 @@
 package net.sophomatics.hierarchy;
 
+import net.sophomatics.events.BreakdownEvent;
+import net.sophomatics.events.ModelSearchEvent;
 import net.sophomatics.stochastic_process.MatrixStochasticProcess;
 import net.sophomatics.stochastic_process.StochasticProcess;
 import net.sophomatics.stochastic_process.StochasticProcessFactory;
@@ -14,25 +16,251 @@ public class EvertedHierarchy<Sensor, Motor> {
     private EvertedHierarchy<Integer, Tuple<Sensor, Motor>> parent;
     private StochasticProcess<Tuple<Integer, Tuple<Sensor, Motor>>, Integer> thisModel;
     private StochasticProcess<Tuple<Integer, Tuple<Sensor, Motor>>, Integer> thisObs;
-    private StochasticProcessFactory<Tuple<Sensor, Motor>, Sensor> mFak;
+    private final StochasticProcessFactory<Tuple<Sensor, Motor>, Sensor> mFak;
     private double threshold;
+    private boolean offHeap;
+    private final Execution execution;
+    private final LevelWorker worker;
     private int nextTypeId;
     private Tuple<Integer, Tuple<Sensor, Motor>> lastCause;
     private int level;
+    private final LevelStatistics statistics;
+    private volatile String statisticsName;
+    private volatile MemoryBudget budget;
 
     public EvertedHierarchy(double threshold) {
-        this(threshold, 0);
+        this(threshold, 0, false, Execution.SERIAL);
     }
 
-    private EvertedHierarchy(double threshold, int level) {
+    public EvertedHierarchy(double threshold, boolean offHeap) {
+        this(threshold, 0, offHeap, Execution.SERIAL);
+    }
+
+    public EvertedHierarchy(double threshold, boolean offHeap, Execution execution) {
+        this(threshold, 0, offHeap, execution);
+    }
+
+    /**
+     * @param library first level types shared with other hierarchies, see StochasticProcessFactory.overlay
+     */
+    public EvertedHierarchy(double threshold, Execution execution, StochasticProcessFactory<Tuple<Sensor, Motor>, Sensor> library) {
+        this(threshold, 0, false, execution, library.overlay());
+    }
+
+    private EvertedHierarchy(double threshold, int level, boolean offHeap, Execution execution) {
+        this(threshold, level, offHeap, execution, new StochasticProcessFactory<Tuple<Sensor, Motor>, Sensor>(StochasticProcessFactory.DEFAULT_FREEZE_AGE, offHeap));
+    }
+
+    private EvertedHierarchy(double threshold, int level, boolean offHeap, Execution execution, StochasticProcessFactory<Tuple<Sensor, Motor>, Sensor> mFak) {
+        this.execution = execution;
+        this.worker = level < 1 || execution == Execution.SERIAL ? null : new LevelWorker("everted-level-" + level, LevelWorker.DEFAULT_CAPACITY);
         this.parent = null;
         this.lastCause = null;
         this.thisModel = null;
         this.nextTypeId = -1;
         this.thisObs = new MatrixStochasticProcess<>(-1);
-        this.mFak = new StochasticProcessFactory<>();
+        this.mFak = mFak;
         this.threshold = threshold;
+        this.offHeap = offHeap;
         this.level = level;
+        this.statistics = new LevelStatistics(level, mFak.getAccount());
+        this.statistics.setModels(mFak.size());
+        this.statisticsName = null;
+        this.budget = null;
+    }
+
+    private EvertedHierarchy(EvertedHierarchy<Sensor, Motor> original) {
+        this.execution = original.execution;
+        this.worker = original.worker == null ? null : new LevelWorker("everted-level-" + original.level, LevelWorker.DEFAULT_CAPACITY);
+        this.parent = original.parent == null ? null : new EvertedHierarchy<>(original.parent);
+        this.lastCause = original.lastCause;
+        this.thisModel = original.thisModel == null ? null : this.parent.mFak.get(original.thisModel.getId());
+        this.nextTypeId = original.nextTypeId;
+        this.thisObs = original.thisObs.fork();
+        this.mFak = original.mFak.fork();
+        this.threshold = original.threshold;
+        this.offHeap = original.offHeap;
+        this.level = original.level;
+        this.statistics = new LevelStatistics(this.level, this.mFak.getAccount());
+        this.statistics.setModels(this.mFak.size());
+        this.statisticsName = null;
+        this.budget = null;
+    }
+
+    /**
+     * Models are shared with the fork until either side writes them. The caller must not call getNextContext
+     * concurrently.
+     *
+     * @return hierarchy that continues independently from the current state
+     */
+    public EvertedHierarchy<Sensor, Motor> fork() {
+        this.flush();
+        return new EvertedHierarchy<>(this);
+    }
+
+    /**
+     * @return types of this level, a library for other hierarchies once trained
+     */
+    public StochasticProcessFactory<Tuple<Sensor, Motor>, Sensor> getFactory() {
+        return this.mFak;
+    }
+
+    public LevelStatistics getStatistics() {
+        return this.statistics;
+    }
+
+    /**
+     * Registers the statistics of all levels as MBeans, including levels that are created later. The hierarchy must
+     * be idle, see flush.
+     */
+    public void registerStatistics(String name) {
+        this.statistics.register(name);
+        this.statisticsName = name;
+        if (this.parent != null) {
+            this.parent.registerStatistics(name);
+        }
+    }
+
+    public void unregisterStatistics() {
+        this.statisticsName = null;
+        this.statistics.unregister();
+        if (this.parent != null) {
+            this.parent.unregisterStatistics();
+        }
+    }
+
+    private void createParent() {
+        this.parent = new EvertedHierarchy<>(this.threshold, this.level + 1, this.offHeap, this.execution);
+        String name = this.statisticsName;
+        if (name != null) {
+            this.parent.registerStatistics(name);
+        }
+        MemoryBudget budget = this.budget;
+        if (budget != null) {
+            this.parent.setBudget(budget);
+        }
+    }
+
+    /**
+     * Charges the types of all levels, including levels that are created later, to the budget. The hierarchy must be
+     * idle, see flush.
+     *
+     * @param budget budget shared with other hierarchies, null to stop charging
+     */
+    public void setBudget(MemoryBudget budget) {
+        this.budget = budget;
+        this.mFak.getAccount().setParent(budget);
+        if (this.parent != null) {
+            this.parent.setBudget(budget);
+        }
+    }
+
+    /**
+     * @return estimated heap bytes of the types of all levels
+     */
+    public long getEstimatedBytes() {
+        long bytes = 0L;
+        for (EvertedHierarchy<?, ?> m = this; m != null; m = m.parent) {
+            bytes += m.mFak.getEstimatedBytes();
+        }
+        return bytes;
+    }
+
+    private boolean mayGrow() {
+        MemoryBudget budget = this.budget;
+        return budget == null || !budget.isEnabled(PressureResponse.STOP_GROWTH) || !budget.isExceeded();
+    }
+
+    private void relieve(int typeId) {
+        MemoryBudget budget = this.budget;
+        if (budget == null || !budget.isExceeded()) {
+            return;
+        }
+        Set<Integer> keep = new HashSet<>();
+        keep.add(typeId);
+        keep.add(this.nextTypeId);
+        if (budget.isEnabled(PressureResponse.EVICT)) {
+            this.mFak.evictIdle(budget.getExcess(), keep);
+        }
+        if (budget.isEnabled(PressureResponse.FREEZE) && budget.isExceeded()) {
+            this.mFak.freezeAll(keep);
+        }
+    }
+
+    /**
+     * @return the type expected to follow, null before the first context
+     */
+    public StochasticProcess<Tuple<Sensor, Motor>, Sensor> getContext() {
+        return this.nextTypeId < 0 ? null : this.mFak.get(this.nextTypeId);
+    }
+
+    /**
+     * Blocks until all levels have processed every event from below. Structure and trace are only consistent after a
+     * flush in pipelined execution.
+     */
+    public void flush() {
+        for (EvertedHierarchy<?, ?> m = this.parent; m != null && m.worker != null; m = m.parent) {
+            m.worker.awaitIdle();
+        }
+    }
+
+    /**
+     * Stops the workers of all levels, each after it has processed the events from below. Structure and trace can
+     * still be read, but getNextContext must not be called anymore.
+     */
+    public void close() {
+        // bottom up, a worker may still submit to the level above until it has stopped
+        for (EvertedHierarchy<?, ?> m = this.parent; m != null; m = m.parent) {
+            if (m.worker != null) {
+                m.worker.close();
+            }
+        }
+    }
+
+    private boolean enterParent() {
+        switch (this.execution) {
+            case PIPELINED:
+                return this.parent.worker.tryLock();
+            case DETERMINISTIC:
+                this.parent.worker.awaitIdle();
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    private void exitParent() {
+        if (this.execution == Execution.PIPELINED) {
+            this.parent.worker.unlock();
+        }
+    }
+
+    private void updateContext(final Tuple<Integer, Tuple<Sensor, Motor>> action) {
+        if (this.parent.worker == null) {
+            this.thisModel = this.parent.getNextContext(this.thisObs, action);
+            return;
+        }
+
+        final StochasticProcess<Tuple<Integer, Tuple<Sensor, Motor>>, Integer> observation;
+        if (this.execution == Execution.PIPELINED) {
+            // the parent consumes the observation later, hand over a copy and go on with an empty one
+            observation = new MatrixStochasticProcess<>(-1);
+            observation.add(this.thisObs);
+            this.thisObs.clear();
+        } else {
+            observation = this.thisObs;
+        }
+        final EvertedHierarchy<Integer, Tuple<Sensor, Motor>> parent = this.parent;
+        parent.worker.submit(new Runnable() {
+            @Override
+            public void run() {
+                // runs under the parent's lock, which also guards reading the context
+                EvertedHierarchy.this.thisModel = parent.getNextContext(observation, action);
+            }
+        });
+        if (this.execution == Execution.DETERMINISTIC) {
+            parent.worker.awaitIdle();
+        }
     }
 
     public List<Integer> getStructure() {
@@ -58,24 +286,40 @@ public class EvertedHierarchy<Sensor, Motor> {
 
     }
 
-    private double getMatch(StochasticProcess<Tuple<Sensor, Motor>, Sensor> token, StochasticProcess<Tuple<Sensor, Motor>, Sensor> type) {
-        return type.getSimilarity(token);
+    private double getMatch(StochasticProcess<Tuple<Sensor, Motor>, Sensor> token, StochasticProcess<Tuple<Sensor, Motor>, Sensor> type, double bound) {
+        return type.getSimilarity(token, (float) bound);
     }
 
     private StochasticProcess<Tuple<Sensor, Motor>, Sensor> getType(StochasticProcess<Tuple<Sensor, Motor>, Sensor> token) {
+        ModelSearchEvent event = new ModelSearchEvent();
+        event.begin();
+        long start = System.nanoTime();
         double thisMatch, maxMatch = -1d;
+        int candidates = 0;
         StochasticProcess<Tuple<Sensor, Motor>, Sensor> bestModel = null;
         for (StochasticProcess<Tuple<Sensor, Motor>, Sensor> eachModel : this.mFak) { // search only in parent model
-            thisMatch = this.getMatch(token, eachModel);
+            // matches below the threshold never win, no need to compute them exactly
+            thisMatch = this.getMatch(token, eachModel, Math.max(maxMatch, this.threshold));
             if (maxMatch < thisMatch) {
                 bestModel = eachModel;
                 maxMatch = thisMatch;
             }
+            candidates++;
+        }
+        this.statistics.search(candidates, System.nanoTime() - start);
+        if (event.shouldCommit()) {
+            event.level = this.level + 1;
+            event.candidates = candidates;
+            event.bestSimilarity = (float) Math.max(maxMatch, 0d);
+            event.matched = maxMatch >= this.threshold;
+            event.commit();
         }
         if (maxMatch >= this.threshold) {
             return bestModel;
         }
-        return this.mFak.newInstance();
+        StochasticProcess<Tuple<Sensor, Motor>, Sensor> newModel = this.mFak.newInstance();
+        this.statistics.setModels(this.mFak.size());
+        return newModel;
     }
 
     private boolean isBreakdown(int typeId) {
@@ -83,9 +327,21 @@ public class EvertedHierarchy<Sensor, Motor> {
     }
 
     private int predict(Tuple<Integer, Tuple<Sensor, Motor>> cause) {
+        // the context belongs to the parent, a busy parent leaves only the own observations
+        if (this.parent == null || !this.enterParent()) {
+            return this.predict(cause, null);
+        }
+        try {
+            return this.predict(cause, this.thisModel);
+        } finally {
+            this.exitParent();
+        }
+    }
+
+    private int predict(Tuple<Integer, Tuple<Sensor, Motor>> cause, StochasticProcess<Tuple<Integer, Tuple<Sensor, Motor>>, Integer> thisModel) {
         Set<Integer> allEffects = new HashSet<>(this.thisObs.getAllEffects());
-        if (this.thisModel != null) {
-            allEffects.addAll(this.thisModel.getAllEffects());
+        if (thisModel != null) {
+            allEffects.addAll(thisModel.getAllEffects());
         }
 
         if (allEffects.isEmpty()) {
@@ -97,8 +353,8 @@ public class EvertedHierarchy<Sensor, Motor> {
 
         for (int eachEffect : allEffects) {
             thisValue = thisObs.getFrequency(cause, eachEffect);
-            if (this.thisModel != null) {
-                thisValue += this.thisModel.getFrequency(cause, eachEffect);
+            if (thisModel != null) {
+                thisValue += thisModel.getFrequency(cause, eachEffect);
             }
             if (bestValue < thisValue) {
                 bestValue = thisValue;
@@ -112,11 +368,14 @@ public class EvertedHierarchy<Sensor, Motor> {
     public StochasticProcess<Tuple<Sensor, Motor>, Sensor> getNextContext(StochasticProcess<Tuple<Sensor, Motor>, Sensor> sensor, Tuple<Sensor, Motor> motor) {
         StochasticProcess<Tuple<Sensor, Motor>, Sensor> sensorType, expectedType;
         int typeId;
+        this.mFak.tick();
+        this.statistics.step(1);
 
         if (this.lastCause != null) {
             expectedType = this.mFak.get(this.nextTypeId);
 
-            if (this.threshold < this.getMatch(sensor, expectedType)) {
+            this.statistics.similarity();
+            if (this.threshold < this.getMatch(sensor, expectedType, this.threshold)) {
                 sensorType = expectedType;
             } else {
                 sensorType = this.getType(sensor);
@@ -124,11 +383,20 @@ public class EvertedHierarchy<Sensor, Motor> {
 
             typeId = sensorType.getId();
             if (isBreakdown(typeId)) {
+                this.statistics.breakdown();
+                BreakdownEvent event = new BreakdownEvent();
+                if (event.shouldCommit()) {
+                    event.level = this.level + 1;
+                    event.modelId = this.thisModel == null ? -1 : this.thisModel.getId();
+                    event.commit();
+                }
                 Tuple<Integer, Tuple<Sensor, Motor>> action = new Tuple<>(typeId, motor);
-                if (this.parent == null) {
-                    this.parent = new EvertedHierarchy<>(this.threshold, this.level + 1);
+                if (this.parent == null && this.mayGrow()) {
+                    this.createParent();
+                }
+                if (this.parent != null) {
+                    this.updateContext(action);
                 }
-                this.thisModel = this.parent.getNextContext(this.thisObs, action);
             }
             this.thisObs.store(this.lastCause, typeId);
 
@@ -142,6 +410,7 @@ public class EvertedHierarchy<Sensor, Motor> {
 
         this.lastCause = new Tuple<>(typeId, motor);
         this.nextTypeId = this.predict(this.lastCause);
+        this.relieve(typeId);
         return this.mFak.get(this.nextTypeId);
     }
 }
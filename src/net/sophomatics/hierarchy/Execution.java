@@ -0,0 +1,25 @@
+package net.sophomatics.hierarchy;
+
+/**
+ * How the levels of a hierarchy are executed
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-20
+ */
+public enum Execution {
+    /**
+     * Every level runs on the caller's stack.
+     */
+    SERIAL,
+    /**
+     * Every level above the first runs on its own worker. A level never waits for its parent, if the parent is busy
+     * it continues with the information it already has.
+     */
+    PIPELINED,
+    /**
+     * Like pipelined, but a level waits for its parent to become idle before reading from it. Produces the same
+     * state as serial execution.
+     */
+    DETERMINISTIC
+}
@@ -1,7 +1,10 @@
 package net.sophomatics.hierarchy;
 
-
+import net.sophomatics.events.BeliefUpdateEvent;
+import net.sophomatics.events.BreakdownEvent;
+import net.sophomatics.events.ModelSearchEvent;
 import net.sophomatics.stochastic_process.MatrixStochasticProcess;
+import net.sophomatics.stochastic_process.Rollout;
 import net.sophomatics.stochastic_process.StochasticProcess;
 import net.sophomatics.stochastic_process.StochasticProcessFactory;
 import net.sophomatics.util.Tuple;
@@ -17,32 +20,359 @@ import java.util.logging.Logger;
  * @since 2015-08-05
  */
 public class Hierarchy<Sensor, Motor> {
+    /**
+     * Number of first level transitions after which a snapshot is published even if no reader asked for it
+     */
+    public final static int SNAPSHOT_INTERVAL = 64;
     private final static Logger logger = Logger.getLogger(Hierarchy.class.getSimpleName());
     public final int level;
     private final StochasticProcessFactory<Tuple<Sensor, Motor>, Sensor> mFak;
     private final StochasticProcess<Tuple<Sensor, Motor>, Sensor> tempModel;
     private final float threshold;
+    private final boolean offHeap;
+    private final Execution execution;
+    private final LevelWorker worker;
     private final Random r;
     private StochasticProcess<Tuple<Sensor, Motor>, Sensor> currentModel, lastModel;
     private Hierarchy<Integer, Tuple<Sensor, Motor>> parent;
     private Tuple<Sensor, Motor> lastCause, nextCause;
     private Map<Sensor, Double> stateProbability;
+    private volatile Snapshot<Sensor, Motor> snapshot;
+    private volatile boolean snapshotRequested;
+    // transitions perceived since the last snapshot and whether a block defers publishing to its end
+    private int unpublished;
+    private boolean inBlock;
+    private final LevelStatistics statistics;
+    private volatile String statisticsName;
+    private volatile MemoryBudget budget;
+
+    private Hierarchy(int level, float threshold, Random r, boolean offHeap, Execution execution) {
+        this(level, threshold, r, offHeap, execution, new StochasticProcessFactory<Tuple<Sensor, Motor>, Sensor>(StochasticProcessFactory.DEFAULT_FREEZE_AGE, offHeap));
+    }
 
-    private Hierarchy(int level, float threshold, Random r) {
+    private Hierarchy(int level, float threshold, Random r, boolean offHeap, Execution execution, StochasticProcessFactory<Tuple<Sensor, Motor>, Sensor> mFak) {
         this.level = level;
+        this.execution = execution;
+        this.worker = level < 1 || execution == Execution.SERIAL ? null : new LevelWorker("level-" + level, LevelWorker.DEFAULT_CAPACITY);
         this.parent = null;
         this.threshold = threshold;
-        this.mFak = new StochasticProcessFactory<>();
+        this.offHeap = offHeap;
+        this.mFak = mFak;
         this.currentModel = null;
         this.lastModel = null;
         this.lastCause = null;
         this.tempModel = new MatrixStochasticProcess<>(-1);
         this.r = r;
         this.stateProbability = new HashMap<>();
+        this.snapshot = null;
+        this.snapshotRequested = false;
+        this.unpublished = 0;
+        this.inBlock = false;
+        this.statistics = new LevelStatistics(level, mFak.getAccount());
+        this.statistics.setModels(mFak.size());
+        this.statisticsName = null;
+        this.budget = null;
+        this.publish();
+    }
+
+    private Hierarchy(Hierarchy<Sensor, Motor> original, Random r) {
+        this.level = original.level;
+        this.execution = original.execution;
+        this.worker = original.worker == null ? null : new LevelWorker("level-" + this.level, LevelWorker.DEFAULT_CAPACITY);
+        this.threshold = original.threshold;
+        this.offHeap = original.offHeap;
+        this.mFak = original.mFak.fork();
+        this.tempModel = original.tempModel.fork();
+        this.currentModel = original.currentModel == null ? null : this.mFak.get(original.currentModel.getId());
+        this.lastModel = original.lastModel == null ? null : this.mFak.get(original.lastModel.getId());
+        this.parent = original.parent == null ? null : new Hierarchy<>(original.parent, r);
+        this.lastCause = original.lastCause;
+        this.nextCause = original.nextCause;
+        this.r = r;
+        this.stateProbability = new HashMap<>(original.stateProbability);
+        this.snapshot = null;
+        this.snapshotRequested = false;
+        this.unpublished = 0;
+        this.inBlock = false;
+        this.statistics = new LevelStatistics(this.level, this.mFak.getAccount());
+        this.statistics.setModels(this.mFak.size());
+        this.statisticsName = null;
+        this.budget = null;
+        this.publish();
     }
 
     public Hierarchy(float threshold, Random r) {
-        this(0, threshold, r);
+        this(0, threshold, r, false, Execution.SERIAL);
+    }
+
+    public Hierarchy(float threshold, Random r, boolean offHeap) {
+        this(0, threshold, r, offHeap, Execution.SERIAL);
+    }
+
+    public Hierarchy(float threshold, Random r, boolean offHeap, Execution execution) {
+        this(0, threshold, r, offHeap, execution);
+    }
+
+    /**
+     * @param library first level models shared with other hierarchies, see StochasticProcessFactory.overlay
+     */
+    public Hierarchy(float threshold, Random r, Execution execution, StochasticProcessFactory<Tuple<Sensor, Motor>, Sensor> library) {
+        this(0, threshold, r, false, execution, library.overlay());
+    }
+
+    /**
+     * @return models of this level, a library for other hierarchies once trained
+     */
+    public StochasticProcessFactory<Tuple<Sensor, Motor>, Sensor> getFactory() {
+        return this.mFak;
+    }
+
+    /**
+     * Blocks until all levels have processed every event from below. Structure, trace and print are only consistent
+     * after a flush in pipelined execution.
+     */
+    public void flush() {
+        for (Hierarchy<?, ?> m = this.parent; m != null && m.worker != null; m = m.parent) {
+            m.worker.awaitIdle();
+        }
+    }
+
+    /**
+     * Stops the workers of all levels, each after it has processed the events from below. Structure and trace can
+     * still be read, but the hierarchy must not perceive anymore.
+     */
+    public void close() {
+        // bottom up, a worker may still submit to the level above until it has stopped
+        for (Hierarchy<?, ?> m = this.parent; m != null; m = m.parent) {
+            if (m.worker != null) {
+                m.worker.close();
+            }
+        }
+    }
+
+    /**
+     * Models are shared with the fork until either side writes them. The caller must not perceive concurrently.
+     *
+     * @param r random generator of the fork
+     * @return hierarchy that continues independently from the current state
+     */
+    public Hierarchy<Sensor, Motor> fork(Random r) {
+        this.flush();
+        return new Hierarchy<>(this, r);
+    }
+
+    public LevelStatistics getStatistics() {
+        return this.statistics;
+    }
+
+    /**
+     * Registers the statistics of all levels as MBeans, including levels that are created later. The hierarchy must
+     * be idle, see flush.
+     */
+    public void registerStatistics(String name) {
+        this.statistics.register(name);
+        this.statisticsName = name;
+        if (this.parent != null) {
+            this.parent.registerStatistics(name);
+        }
+    }
+
+    public void unregisterStatistics() {
+        this.statisticsName = null;
+        this.statistics.unregister();
+        if (this.parent != null) {
+            this.parent.unregisterStatistics();
+        }
+    }
+
+    private void createParent() {
+        this.parent = new Hierarchy<>(this.level + 1, this.threshold, this.r, this.offHeap, this.execution);
+        String name = this.statisticsName;
+        if (name != null) {
+            this.parent.registerStatistics(name);
+        }
+        MemoryBudget budget = this.budget;
+        if (budget != null) {
+            this.parent.setBudget(budget);
+        }
+    }
+
+    /**
+     * Charges the models of all levels, including levels that are created later, to the budget. The hierarchy must
+     * be idle, see flush.
+     *
+     * @param budget budget shared with other hierarchies, null to stop charging
+     */
+    public void setBudget(MemoryBudget budget) {
+        this.budget = budget;
+        this.mFak.getAccount().setParent(budget);
+        if (this.parent != null) {
+            this.parent.setBudget(budget);
+        }
+    }
+
+    /**
+     * @return estimated heap bytes of the models of all levels
+     */
+    public long getEstimatedBytes() {
+        long bytes = 0L;
+        for (Hierarchy<?, ?> m = this; m != null; m = m.parent) {
+            bytes += m.mFak.getEstimatedBytes();
+        }
+        return bytes;
+    }
+
+    private boolean mayGrow() {
+        MemoryBudget budget = this.budget;
+        return budget == null || !budget.isEnabled(PressureResponse.STOP_GROWTH) || !budget.isExceeded();
+    }
+
+    private void relieve() {
+        MemoryBudget budget = this.budget;
+        if (budget == null || !budget.isExceeded()) {
+            return;
+        }
+        Set<Integer> keep = new HashSet<>();
+        keep.add(this.lastModel.getId());
+        if (this.currentModel != null) {
+            keep.add(this.currentModel.getId());
+        }
+        if (budget.isEnabled(PressureResponse.EVICT)) {
+            this.mFak.evictIdle(budget.getExcess(), keep);
+        }
+        if (budget.isEnabled(PressureResponse.FREEZE) && budget.isExceeded()) {
+            this.mFak.freezeAll(keep);
+        }
+    }
+
+    float getThreshold() {
+        return this.threshold;
+    }
+
+    /**
+     * Continues from a pretrained segmentation. Each type is added to the most similar model that already exists, or
+     * seeds a new model if none is similar enough. The parent perceives the sequence of types as if the segments had
+     * been observed online.
+     *
+     * @param sequence index of the type of each segment in corpus order
+     * @param causes   cause that ended each segment
+     */
+    void seed(List<? extends StochasticProcess<Tuple<Sensor, Motor>, Sensor>> types, List<Integer> sequence, List<Tuple<Sensor, Motor>> causes) {
+        List<StochasticProcess<Tuple<Sensor, Motor>, Sensor>> existing = new ArrayList<>();
+        for (StochasticProcess<Tuple<Sensor, Motor>, Sensor> eachModel : this.mFak) {
+            existing.add(eachModel);
+        }
+
+        int[] ids = new int[types.size()];
+        StochasticProcess<Tuple<Sensor, Motor>, Sensor> bestModel;
+        float thisValue, bestValue;
+        for (int i = 0; i < ids.length; i++) {
+            bestModel = null;
+            bestValue = this.threshold;
+            for (StochasticProcess<Tuple<Sensor, Motor>, Sensor> eachModel : existing) {
+                thisValue = eachModel.getSimilarity(types.get(i), bestValue);
+                if (thisValue >= bestValue) {
+                    bestModel = eachModel;
+                    bestValue = thisValue;
+                }
+            }
+            if (bestModel == null) {
+                ids[i] = this.mFak.newInstance(types.get(i)).getId();
+            } else {
+                bestModel.add(types.get(i));
+                ids[i] = bestModel.getId();
+            }
+        }
+
+        StochasticProcess<Tuple<Sensor, Motor>, Sensor> thisModel;
+        for (int k = 0; k < sequence.size(); k++) {
+            thisModel = this.mFak.get(ids[sequence.get(k)]);
+            if (this.parent == null) {
+                if (this.mayGrow()) {
+                    this.createParent();
+                }
+            } else if (this.lastModel != null && this.lastCause != null) {
+                this.perceiveParent(this.lastModel.getId(), this.lastCause, thisModel.getId());
+            }
+            this.lastModel = thisModel;
+            this.lastCause = causes.get(k);
+        }
+        if (this.lastModel != null) {
+            this.currentModel = this.lastModel;
+        }
+        this.statistics.setModels(this.mFak.size());
+        this.tempModel.clear();
+        this.publish();
+    }
+
+    /**
+     * Publishes after a perception or a block of them if a reader has asked for a snapshot since the last one, or if
+     * SNAPSHOT_INTERVAL transitions have been perceived since. A snapshot is thus never more than that behind.
+     */
+    private void publishIfDue() {
+        if (this.level < 1 && !this.inBlock && (this.snapshotRequested || SNAPSHOT_INTERVAL <= this.unpublished)) {
+            this.publish();
+        }
+    }
+
+    /**
+     * Publishes what predict reads for readers on other threads. The temporary model is small and forked, the current
+     * model is only forked when it changes, which happens at breakdowns. Off-heap models cannot be forked and are
+     * copied to the heap.
+     */
+    private void publish() {
+        if (0 < this.level) {
+            return;
+        }
+        this.snapshotRequested = false;
+        this.unpublished = 0;
+        Snapshot<Sensor, Motor> last = this.snapshot;
+        StochasticProcess<Tuple<Sensor, Motor>, Sensor> current = null;
+        long currentVersion = -1L;
+        if (this.currentModel != null) {
+            currentVersion = this.currentModel.getVersion();
+            if (last != null && last.source == this.currentModel && last.sourceVersion == currentVersion) {
+                current = last.current;
+            } else if (this.offHeap) {
+                current = new MatrixStochasticProcess<>(this.currentModel.getId());
+                current.add(this.currentModel);
+            } else {
+                current = this.currentModel.fork();
+            }
+        }
+        this.snapshot = new Snapshot<>(this.tempModel.fork(), current, this.currentModel, currentVersion);
+    }
+
+    private boolean enterParent() {
+        switch (this.execution) {
+            case PIPELINED:
+                return this.parent.worker.tryLock();
+            case DETERMINISTIC:
+                this.parent.worker.awaitIdle();
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    private void exitParent() {
+        if (this.execution == Execution.PIPELINED) {
+            this.parent.worker.unlock();
+        }
+    }
+
+    private void perceiveParent(final int lastId, final Tuple<Sensor, Motor> lastCause, final int thisId) {
+        if (this.parent.worker == null) {
+            this.parent.perceive(lastId, lastCause, thisId);
+            return;
+        }
+        final Hierarchy<Integer, Tuple<Sensor, Motor>> parent = this.parent;
+        parent.worker.submit(new Runnable() {
+            @Override
+            public void run() {
+                parent.perceive(lastId, lastCause, thisId);
+            }
+        });
     }
 
     public List<Integer> getStructure() {
@@ -72,9 +402,16 @@ public class Hierarchy<Sensor, Motor> {
         return sb.toString();
     }
 
+    /**
+     * @return the current model, or the observations since the last breakdown if there is no current model yet
+     */
+    public StochasticProcess<Tuple<Sensor, Motor>, Sensor> getContext() {
+        return this.currentModel == null ? this.tempModel : this.currentModel;
+    }
+
     public List<StochasticProcess> getTrace() {
         List<StochasticProcess> trace = new ArrayList<>();
-        for (Hierarchy m = this; m.currentModel != null; m = m.parent) {
+        for (Hierarchy m = this; m != null && m.currentModel != null; m = m.parent) {
             trace.add(m.currentModel);
         }
         return trace;
@@ -82,14 +419,31 @@ public class Hierarchy<Sensor, Motor> {
 
     private StochasticProcess<Tuple<Sensor, Motor>, Sensor> findModel() {
         StochasticProcess<Tuple<Sensor, Motor>, Sensor> bestModel = null;
+        ModelSearchEvent event = new ModelSearchEvent();
+        event.begin();
+        long start = System.nanoTime();
 
-        float thisValue, bestValue = this.threshold;
+        float thisValue, bestValue = this.threshold, maxValue = 0f;
+        int candidates = 0;
         for (StochasticProcess<Tuple<Sensor, Motor>, Sensor> eachModel : this.mFak) {
-            thisValue = eachModel.getSimilarity(this.tempModel);
+            thisValue = eachModel.getSimilarity(this.tempModel, bestValue);
             if (thisValue >= bestValue) {
                 bestModel = eachModel;
                 bestValue = thisValue;
             }
+            if (maxValue < thisValue) {
+                maxValue = thisValue;
+            }
+            candidates++;
+        }
+        this.statistics.search(candidates, System.nanoTime() - start);
+
+        if (event.shouldCommit()) {
+            event.level = this.level;
+            event.candidates = candidates;
+            event.bestSimilarity = maxValue;
+            event.matched = bestModel != null;
+            event.commit();
         }
 
         if (bestModel == null) {
@@ -121,40 +475,148 @@ public class Hierarchy<Sensor, Motor> {
     }
 
     public void perceive(Sensor s0, Motor m0, Sensor s1) {
-        Tuple<Sensor, Motor> cause = new Tuple<>(s0, m0);
+        this.perceive(new Tuple<>(s0, m0), s1, 1);
+    }
+
+    /**
+     * Perceives a block of transitions from sensors[offset + i] and motors[offset + i] to sensors[offset + i + 1].
+     * Repetitions of the same transition are perceived at once.
+     */
+    public void perceive(Sensor[] sensors, Motor[] motors, int offset, int length) {
+        if (offset < 0 || length < 0 || sensors.length <= offset + length || motors.length < offset + length) {
+            throw new IllegalArgumentException("Block exceeds the given sensors or motors.");
+        }
+        int end = offset + length;
+        int run;
+        this.beginBlock();
+        try {
+            for (int i = offset; i < end; i += run) {
+                run = getRunLength(sensors, motors, i, end);
+                this.perceive(new Tuple<>(sensors[i], motors[i]), sensors[i + 1], run);
+            }
+        } finally {
+            this.endBlock();
+        }
+    }
+
+    /**
+     * Defers publishing until endBlock, for callers that perceive a block of transitions one run at a time.
+     */
+    public void beginBlock() {
+        this.inBlock = true;
+    }
+
+    /**
+     * Publishes once for the whole block if a reader asked for a snapshot meanwhile, see predictSnapshot.
+     */
+    public void endBlock() {
+        this.inBlock = false;
+        this.publishIfDue();
+    }
+
+    /**
+     * @return number of transitions from i on before end that repeat the transition at i
+     */
+    public static <Sensor, Motor> int getRunLength(Sensor[] sensors, Motor[] motors, int i, int end) {
+        int j = i + 1;
+        while (j < end && sensors[j].equals(sensors[i]) && motors[j].equals(motors[i]) && sensors[j + 1].equals(sensors[i + 1])) {
+            j++;
+        }
+        return j - i;
+    }
+
+    /**
+     * Only the first of count identical transitions can break down, the rest strengthens the effect that is then the
+     * most frequent one.
+     */
+    public void perceive(Tuple<Sensor, Motor> cause, Sensor s1, int count) {
+        this.mFak.tick(count);
+        this.statistics.step(count);
 
         if (this.isBreakdown(cause, s1)) {
+            this.statistics.breakdown();
+            BreakdownEvent event = new BreakdownEvent();
+            if (event.shouldCommit()) {
+                event.level = this.level;
+                event.modelId = this.currentModel == null ? -1 : this.currentModel.getId();
+                event.commit();
+            }
+            BeliefUpdateEvent sensorUpdate = new BeliefUpdateEvent();
+            sensorUpdate.begin();
             StochasticProcess<Tuple<Sensor, Motor>, Sensor> thisModel;
 
-            if (this.parent == null) {
-                this.parent = new Hierarchy<>(this.level + 1, this.threshold, this.r);
+            if (this.currentModel == null) {
+                if (this.mayGrow()) {
+                    this.createParent();
+                }
                 this.currentModel = this.mFak.newInstance();
                 thisModel = this.currentModel;
 
             } else {
-                int bestId = this.parent.predict(new Tuple<>(this.currentModel.getId(), cause));
+                if (this.parent == null && this.mayGrow()) {
+                    this.createParent();
+                }
+                // a busy or missing parent predicts nothing, which means staying in the current model
+                int bestId = this.currentModel.getId();
+                if (this.parent != null && this.enterParent()) {
+                    try {
+                        bestId = this.parent.predict(new Tuple<>(this.currentModel.getId(), cause));
+                    } finally {
+                        this.exitParent();
+                    }
+                }
                 thisModel = this.mFak.get(bestId);
 
                 float sim = thisModel.getSimilarity(this.tempModel);
+                this.statistics.similarity();
                 if (sim < this.threshold) {
                     thisModel = this.findModel();
                 }
             }
+            if (sensorUpdate.shouldCommit()) {
+                sensorUpdate.level = this.level;
+                sensorUpdate.states = this.mFak.size();
+                sensorUpdate.motor = false;
+                sensorUpdate.commit();
+            }
             thisModel.add(this.tempModel);
 
-            if (this.lastModel != null && this.lastCause != null) {
-                this.parent.perceive(this.lastModel.getId(), this.lastCause, thisModel.getId());
-                int nextId = this.parent.predict(new Tuple<>(thisModel.getId(), cause));
+            if (this.parent == null) {
+                this.currentModel = thisModel;
+            } else if (this.lastModel != null && this.lastCause != null) {
+                this.perceiveParent(this.lastModel.getId(), this.lastCause, thisModel.getId());
+                BeliefUpdateEvent motorUpdate = new BeliefUpdateEvent();
+                motorUpdate.begin();
+                int nextId = thisModel.getId();
+                Tuple<Sensor, Motor> nextCause = null;
+                if (this.enterParent()) {
+                    try {
+                        nextId = this.parent.predict(new Tuple<>(thisModel.getId(), cause));
+                        nextCause = this.parent.act(nextId);
+                    } finally {
+                        this.exitParent();
+                    }
+                }
                 this.currentModel = this.mFak.get(nextId);
-                this.nextCause = this.parent.act(nextId);
+                this.nextCause = nextCause;
+                if (motorUpdate.shouldCommit()) {
+                    motorUpdate.level = this.level;
+                    motorUpdate.states = this.mFak.size();
+                    motorUpdate.motor = true;
+                    motorUpdate.commit();
+                }
             }
 
             this.tempModel.clear();
             this.lastModel = thisModel;
             this.lastCause = cause;
+            this.relieve();
+            this.statistics.setModels(this.mFak.size());
         }
 
-        this.tempModel.store(cause, s1);
+        this.tempModel.store(cause, s1, count);
+        this.unpublished += count;
+        this.publishIfDue();
     }
 
     public String printBeliefDistribution() {
@@ -226,9 +688,32 @@ public class Hierarchy<Sensor, Motor> {
     }
 
     public Sensor predict(Tuple<Sensor, Motor> cause) {
-        Set<Sensor> allCons = new HashSet<>(this.tempModel.getAllEffects());
-        if (this.currentModel != null) {
-            allCons.addAll(this.currentModel.getAllEffects());
+        return predict(this.tempModel, this.currentModel, cause);
+    }
+
+    /**
+     * Same as predict, but may be called from any thread without blocking perception. Sees the state after the first
+     * perception or block of the first level that completed since the previous call. Without calls it sees a state at
+     * most SNAPSHOT_INTERVAL transitions old.
+     */
+    public Sensor predictSnapshot(Tuple<Sensor, Motor> cause) {
+        this.snapshotRequested = true;
+        Snapshot<Sensor, Motor> snapshot = this.snapshot;
+        return predict(snapshot.temp, snapshot.current, cause);
+    }
+
+    /**
+     * @return frequency predict weighs effect with, ties between effects are broken arbitrarily
+     */
+    int getFrequency(Tuple<Sensor, Motor> cause, Sensor effect) {
+        int frequency = this.tempModel.getFrequency(cause, effect);
+        return this.currentModel == null ? frequency : frequency + this.currentModel.getFrequency(cause, effect);
+    }
+
+    private static <Sensor, Motor> Sensor predict(StochasticProcess<Tuple<Sensor, Motor>, Sensor> tempModel, StochasticProcess<Tuple<Sensor, Motor>, Sensor> currentModel, Tuple<Sensor, Motor> cause) {
+        Set<Sensor> allCons = new HashSet<>(tempModel.getAllEffects());
+        if (currentModel != null) {
+            allCons.addAll(currentModel.getAllEffects());
         }
 
         if (allCons.size() < 1) {
@@ -239,9 +724,9 @@ public class Hierarchy<Sensor, Motor> {
         int thisValue, maxValue = -1;
 
         for (Sensor s1 : allCons) {
-            thisValue = this.tempModel.getFrequency(cause, s1);
-            if (this.currentModel != null) {
-                thisValue += this.currentModel.getFrequency(cause, s1);
+            thisValue = tempModel.getFrequency(cause, s1);
+            if (currentModel != null) {
+                thisValue += currentModel.getFrequency(cause, s1);
             }
             if (maxValue < thisValue) {
                 bestSensor = s1;
@@ -252,6 +737,14 @@ public class Hierarchy<Sensor, Motor> {
         return bestSensor;
     }
 
+    /**
+     * Generates up to length sensors following s by sampling the current model, or the observations since the last
+     * breakdown if there is no current model yet.
+     */
+    public List<Sensor> rollout(Sensor s, int length, Random random) {
+        return Rollout.generate(this.getContext(), s, length, random);
+    }
+
     public Motor act(Sensor s) {
         if (this.nextCause != null && s.equals(this.nextCause.a)) {
             // TODO: decide whether long term goals or short term goals, store cumulative expected discounted reward?
@@ -269,9 +762,28 @@ public class Hierarchy<Sensor, Motor> {
             }
         }
 
+        if (actions.isEmpty()) {
+            return null;
+        }
+
         Motor m = null;
         Iterator<Motor> it = actions.iterator();
         for (int p = r.nextInt(actions.size()); p-- >= 0; m = it.next()) ;
         return m;
     }
+
+    private static class Snapshot<Sensor, Motor> {
+        private final StochasticProcess<Tuple<Sensor, Motor>, Sensor> temp;
+        private final StochasticProcess<Tuple<Sensor, Motor>, Sensor> current;
+        // live model the current fork was taken from, only compared by identity
+        private final StochasticProcess<Tuple<Sensor, Motor>, Sensor> source;
+        private final long sourceVersion;
+
+        private Snapshot(StochasticProcess<Tuple<Sensor, Motor>, Sensor> temp, StochasticProcess<Tuple<Sensor, Motor>, Sensor> current, StochasticProcess<Tuple<Sensor, Motor>, Sensor> source, long sourceVersion) {
+            this.temp = temp;
+            this.current = current;
+            this.source = source;
+            this.sourceVersion = sourceVersion;
+        }
+    }
 }
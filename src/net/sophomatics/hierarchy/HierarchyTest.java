@@ -0,0 +1,99 @@
+package net.sophomatics.hierarchy;
+
+import net.sophomatics.util.Tuple;
+
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Checks that predictSnapshot keeps up with predict after single and batched perception.
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-25
+ */
+public class HierarchyTest {
+    private final static Logger logger = Logger.getLogger(HierarchyTest.class.getSimpleName());
+    private final static String text0 = "peter piper picked a peck of pickled peppers a peck of pickled peppers peter piper picked if peter piper picked a peck of pickled peppers wheres the peck of pickled peppers peter piper picked ";
+    private final static String text1 = "Just go to your Package Explorer and press F5, or for some laptops fn+F5. The reason is that eclipse thinks that the files are somewhere, but the files are actually somewhere else.";
+    private static int errors = 0;
+
+    private static boolean getMotor(int i) {
+        return i % 3 != 0;
+    }
+
+    /**
+     * Snapshots break ties between equally frequent effects in their own order, so predictions are compared by the
+     * frequency the live hierarchy gives them.
+     */
+    private static void comparePredictions(String what, Hierarchy<Character, Boolean> h, String text) {
+        Tuple<Character, Boolean> cause;
+        Character predicted, expected;
+        for (int i = 0; i < text.length(); i++) {
+            for (boolean eachMotor : new boolean[]{true, false}) {
+                cause = new Tuple<>(text.charAt(i), eachMotor);
+                predicted = h.predictSnapshot(cause);
+                expected = h.predict(cause);
+                if (h.getFrequency(cause, predicted) != h.getFrequency(cause, expected)) {
+                    logger.log(Level.SEVERE, String.format("%s predicts %s after %s, expected %s", what, predicted, cause, expected));
+                    errors++;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Probes after every perception first, then only each time the snapshot interval forces a new snapshot.
+     */
+    private static void checkSingle(String text, int steps) {
+        Hierarchy<Character, Boolean> h = new Hierarchy<>(.7f, new Random(0L));
+        h.predictSnapshot(new Tuple<>(text.charAt(0), true));
+        for (int i = 0; i < steps; i++) {
+            h.perceive(text.charAt(i % text.length()), getMotor(i), text.charAt((i + 1) % text.length()));
+            if (i < steps / 2 || (i + 1 - steps / 2) % (Hierarchy.SNAPSHOT_INTERVAL + 1) == 0) {
+                comparePredictions("Snapshot after single perception " + i, h, text);
+            }
+        }
+    }
+
+    /**
+     * Blocks alternate between the block perceive and runs between beginBlock and endBlock, as batched agents do.
+     */
+    private static void checkBatched(String text, int steps, int length) {
+        Hierarchy<Character, Boolean> h = new Hierarchy<>(.7f, new Random(0L));
+        Character[] sensors = new Character[length + 1];
+        Boolean[] motors = new Boolean[length];
+        h.predictSnapshot(new Tuple<>(text.charAt(0), true));
+        int run;
+        for (int i = 0, block = 0; i < steps; i += length, block++) {
+            for (int k = 0; k <= length; k++) {
+                sensors[k] = text.charAt((i + k) % text.length());
+                if (k < length) {
+                    // repeated transitions on spaces
+                    motors[k] = sensors[k] != ' ' || getMotor(i + k);
+                }
+            }
+            if (block % 2 == 0) {
+                h.perceive(sensors, motors, 0, length);
+            } else {
+                h.beginBlock();
+                for (int k = 0; k < length; k += run) {
+                    run = Hierarchy.getRunLength(sensors, motors, k, length);
+                    h.perceive(new Tuple<>(sensors[k], motors[k]), sensors[k + 1], run);
+                }
+                h.endBlock();
+            }
+            comparePredictions("Snapshot after block " + block, h, text);
+        }
+    }
+
+    public static void main(String[] args) {
+        checkSingle(text0, 4000);
+        checkSingle(text1, 4000);
+        checkBatched(text0, 4000, 37);
+        checkBatched(text1, 4000, 37);
+        logger.info(String.format("Finished with %s errors.", errors));
+    }
+}
@@ -0,0 +1,200 @@
+package net.sophomatics.hierarchy;
+
+import net.sophomatics.stochastic_process.MemoryAccount;
+import net.sophomatics.util.Histogram;
+
+import javax.management.*;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Continuously updated numbers of one hierarchy level. Counters are striped and gauges are volatile, so the level
+ * records without locks and management clients read from any thread. The level only allocates when a window of the
+ * similarity rate ends, at most once a second. The level updates the number of models at breakdowns, the memory
+ * estimate is read from the account of the level's factory.
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-22
+ */
+public class LevelStatistics implements LevelStatisticsMBean {
+    private final static long WINDOW_NANOS = 1000000000L;
+    private final int level;
+    private final LongAdder steps;
+    private final LongAdder breakdowns;
+    private final LongAdder similarities;
+    private final Histogram searchLatency;
+    private final MemoryAccount account;
+    private volatile int models;
+    // written by the level at the first similarity computation of every window, management clients only read it
+    private volatile Window window;
+    private ObjectName name;
+
+    public LevelStatistics(int level, MemoryAccount account) {
+        this.level = level;
+        this.steps = new LongAdder();
+        this.breakdowns = new LongAdder();
+        this.similarities = new LongAdder();
+        this.searchLatency = new Histogram();
+        this.account = account;
+        this.models = 0;
+        this.window = new Window(System.nanoTime() / WINDOW_NANOS, 0L, 0d);
+        this.name = null;
+    }
+
+    void step(int count) {
+        this.steps.add(count);
+    }
+
+    void breakdown() {
+        this.breakdowns.increment();
+    }
+
+    void search(int candidates, long nanos) {
+        this.roll();
+        this.similarities.add(candidates);
+        this.searchLatency.record(nanos);
+    }
+
+    void similarity() {
+        this.roll();
+        this.similarities.increment();
+    }
+
+    /**
+     * Starts a new window if the current one has ended, before the computations of the new window are counted.
+     */
+    private void roll() {
+        Window window = this.window;
+        long index = System.nanoTime() / WINDOW_NANOS;
+        if (index == window.index) {
+            return;
+        }
+        long similarities = this.similarities.sum();
+        double rate = index == window.index + 1 ? (similarities - window.start) * 1e9d / WINDOW_NANOS : 0d;
+        this.window = new Window(index, similarities, rate);
+    }
+
+    void setModels(int models) {
+        this.models = models;
+    }
+
+    /**
+     * Registers these statistics with the platform MBean server as net.sophomatics:type=Level,name=name,level=level
+     */
+    public synchronized void register(String name) {
+        if (this.name != null) {
+            throw new IllegalStateException("Statistics are already registered.");
+        }
+        try {
+            ObjectName objectName = new ObjectName("net.sophomatics:type=Level,name=" + ObjectName.quote(name) + ",level=" + this.level);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            this.name = objectName;
+        } catch (InstanceAlreadyExistsException e) {
+            throw new IllegalArgumentException("Name is already taken.", e);
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public synchronized void unregister() {
+        if (this.name == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.name);
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            this.name = null;
+        }
+    }
+
+    @Override
+    public int getLevel() {
+        return this.level;
+    }
+
+    @Override
+    public int getModels() {
+        return this.models;
+    }
+
+    @Override
+    public long getSteps() {
+        return this.steps.sum();
+    }
+
+    @Override
+    public long getBreakdowns() {
+        return this.breakdowns.sum();
+    }
+
+    @Override
+    public double getBreakdownRate() {
+        long steps = this.getSteps();
+        return steps < 1L ? 0d : (double) this.getBreakdowns() / steps;
+    }
+
+    @Override
+    public double getAverageSegmentLength() {
+        long breakdowns = this.getBreakdowns();
+        return breakdowns < 1L ? 0d : (double) this.getSteps() / breakdowns;
+    }
+
+    @Override
+    public long getSimilarityComputations() {
+        return this.similarities.sum();
+    }
+
+    @Override
+    public double getSimilarityComputationsPerSecond() {
+        Window window = this.window;
+        long index = System.nanoTime() / WINDOW_NANOS;
+        if (index == window.index) {
+            return window.previousRate;
+        } else if (index == window.index + 1) {
+            // the last window ended without a computation after it, so the counter still holds its total
+            return (this.getSimilarityComputations() - window.start) * 1e9d / WINDOW_NANOS;
+        }
+        return 0d;
+    }
+
+    @Override
+    public long getSearches() {
+        return this.searchLatency.getCount();
+    }
+
+    @Override
+    public double getMeanSearchLatencyNanos() {
+        return this.searchLatency.getMean();
+    }
+
+    @Override
+    public long getSearchLatency99PercentileNanos() {
+        return this.searchLatency.getQuantile(.99d);
+    }
+
+    @Override
+    public long[] getSearchLatencyHistogram() {
+        return this.searchLatency.getCounts();
+    }
+
+    @Override
+    public long getEstimatedBytes() {
+        return this.account.getBytes();
+    }
+
+    private static class Window {
+        private final long index;
+        // computations before the window and rate of the window before, zero if that had no computations
+        private final long start;
+        private final double previousRate;
+
+        private Window(long index, long start, double previousRate) {
+            this.index = index;
+            this.start = start;
+            this.previousRate = previousRate;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package net.sophomatics.hierarchy;
+
+/**
+ * Management interface of the statistics of one hierarchy level
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-22
+ */
+public interface LevelStatisticsMBean {
+    int getLevel();
+
+    int getModels();
+
+    long getSteps();
+
+    long getBreakdowns();
+
+    /**
+     * @return breakdowns per step
+     */
+    double getBreakdownRate();
+
+    /**
+     * @return steps per breakdown
+     */
+    double getAverageSegmentLength();
+
+    long getSimilarityComputations();
+
+    /**
+     * @return similarity computations per second in the last completed window of one second, reading does not
+     * change it
+     */
+    double getSimilarityComputationsPerSecond();
+
+    long getSearches();
+
+    double getMeanSearchLatencyNanos();
+
+    long getSearchLatency99PercentileNanos();
+
+    /**
+     * @return search counts in power of two buckets of nanoseconds, see Histogram
+     */
+    long[] getSearchLatencyHistogram();
+
+    /**
+     * @return estimated heap bytes of the models, see StochasticProcessFactory.getAccount
+     */
+    long getEstimatedBytes();
+}
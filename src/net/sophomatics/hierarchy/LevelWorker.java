@@ -0,0 +1,135 @@
+package net.sophomatics.hierarchy;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Worker thread of a pipelined hierarchy level. Events from the level below are queued and run one at a time while
+ * holding the level's lock. The thread runs until the worker is closed.
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-20
+ */
+class LevelWorker {
+    final static int DEFAULT_CAPACITY = 256;
+    // queued by close after all other events, ends the thread
+    private final static Runnable STOP = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+    private final BlockingQueue<Runnable> events;
+    private final ReentrantLock lock;
+    private final AtomicLong submitted;
+    private final AtomicLong processed;
+    private final Thread thread;
+    private volatile RuntimeException failure;
+    private volatile boolean closed;
+
+    LevelWorker(String name, int capacity) {
+        this.events = new ArrayBlockingQueue<>(capacity);
+        this.lock = new ReentrantLock();
+        this.submitted = new AtomicLong(0L);
+        this.processed = new AtomicLong(0L);
+        this.failure = null;
+        this.closed = false;
+
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                LevelWorker.this.work();
+            }
+        }, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void work() {
+        Runnable event;
+        while (true) {
+            try {
+                event = this.events.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (event == STOP) {
+                return;
+            }
+            this.lock.lock();
+            try {
+                event.run();
+            } catch (RuntimeException e) {
+                if (this.failure == null) {
+                    this.failure = e;
+                }
+            } finally {
+                this.lock.unlock();
+            }
+            this.processed.incrementAndGet();
+        }
+    }
+
+    private void checkFailure() {
+        if (this.failure != null) {
+            throw new IllegalStateException("Level worker failed.", this.failure);
+        }
+    }
+
+    /**
+     * Queues event, blocks while the queue is full.
+     *
+     * @throws IllegalStateException if the worker failed or is closed
+     */
+    void submit(Runnable event) {
+        this.checkFailure();
+        if (this.closed) {
+            throw new IllegalStateException("Level worker is closed.");
+        }
+        this.submitted.incrementAndGet();
+        try {
+            this.events.put(event);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while submitting to a level.", e);
+        }
+    }
+
+    /**
+     * Blocks until every submitted event has been processed.
+     */
+    void awaitIdle() {
+        while (this.processed.get() < this.submitted.get()) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(10));
+        }
+        this.checkFailure();
+    }
+
+    /**
+     * Runs the events submitted so far and waits for the thread to end. Closing twice has no effect.
+     */
+    void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            this.events.put(STOP);
+            this.thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    boolean tryLock() {
+        return this.lock.tryLock();
+    }
+
+    void unlock() {
+        this.lock.unlock();
+    }
+}
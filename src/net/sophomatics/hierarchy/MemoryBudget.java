@@ -0,0 +1,47 @@
+package net.sophomatics.hierarchy;
+
+import net.sophomatics.stochastic_process.MemoryAccount;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Account with a limit that may be shared by any number of hierarchies and agents. Levels check the budget at their
+ * breakdowns and apply the configured pressure responses while it is exceeded.
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-22
+ */
+public class MemoryBudget extends MemoryAccount {
+    private final long limit;
+    private final Set<PressureResponse> responses;
+
+    public MemoryBudget(long limit, PressureResponse... responses) {
+        if (limit < 0L) {
+            throw new IllegalArgumentException("Limit must not be negative.");
+        }
+        this.limit = limit;
+        this.responses = responses.length < 1 ? EnumSet.noneOf(PressureResponse.class) : EnumSet.copyOf(Arrays.asList(responses));
+    }
+
+    public long getLimit() {
+        return this.limit;
+    }
+
+    /**
+     * @return estimated bytes above the limit, 0 if the budget is met
+     */
+    public long getExcess() {
+        return Math.max(0L, this.getBytes() - this.limit);
+    }
+
+    public boolean isExceeded() {
+        return this.limit < this.getBytes();
+    }
+
+    public boolean isEnabled(PressureResponse response) {
+        return this.responses.contains(response);
+    }
+}
@@ -0,0 +1,27 @@
+package net.sophomatics.hierarchy;
+
+/**
+ * What a level does at a breakdown while its memory budget is exceeded. Responses are applied in this order until the
+ * budget is met.
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-22
+ */
+public enum PressureResponse {
+    /**
+     * Clears the models of the level that have been idle for the most freeze rounds. Their ids are not given to new
+     * models, so the counts that the level above holds for an id never refer to another model. Cleared models never
+     * match new observations again.
+     */
+    EVICT,
+    /**
+     * Freezes all models of the level that are not in use into their compact read-only layout. A frozen model is
+     * thawed again on its next write.
+     */
+    FREEZE,
+    /**
+     * Creates no new levels, the current top level keeps segmenting without a parent.
+     */
+    STOP_GROWTH
+}
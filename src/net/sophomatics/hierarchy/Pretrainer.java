@@ -0,0 +1,148 @@
+package net.sophomatics.hierarchy;
+
+import net.sophomatics.stochastic_process.MatrixStochasticProcess;
+import net.sophomatics.util.Tuple;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Parallel bulk training of the first level of a hierarchy. The corpus is split into chunks which are segmented at
+ * breakdowns independently. Segments of a chunk are grouped into local types, the reduction merges similar types
+ * across chunks by summing their frequencies and seeds the hierarchy with the result. Every transition ends up in
+ * exactly one type, so the types also hold the summed transition frequencies of the corpus.
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-22
+ */
+public class Pretrainer<Sensor, Motor> {
+    private final int workers;
+    private final int chunks;
+
+    public Pretrainer(int workers) {
+        this(workers, 4 * workers);
+    }
+
+    public Pretrainer(int workers, int chunks) {
+        if (workers < 1 || chunks < 1) {
+            throw new IllegalArgumentException("Need at least one worker and one chunk.");
+        }
+        this.workers = workers;
+        this.chunks = chunks;
+    }
+
+    /**
+     * Trains hierarchy on corpus, every transition is taken with motor. Segments do not span chunk borders.
+     */
+    public void pretrain(Hierarchy<Sensor, Motor> hierarchy, final List<Sensor> corpus, final Motor motor) throws InterruptedException {
+        final float threshold = hierarchy.getThreshold();
+        int chunkSize = Math.max(1, (corpus.size() - 1 + this.chunks - 1) / this.chunks);
+
+        // map
+        ExecutorService pool = Executors.newFixedThreadPool(this.workers);
+        List<Future<Chunk<Sensor, Motor>>> futures = new ArrayList<>(this.chunks);
+        try {
+            for (int start = 0; start < corpus.size() - 1; start += chunkSize) {
+                final int from = start;
+                final int to = Math.min(corpus.size() - 1, start + chunkSize);
+                futures.add(pool.submit(new Callable<Chunk<Sensor, Motor>>() {
+                    @Override
+                    public Chunk<Sensor, Motor> call() {
+                        return new Chunk<>(corpus, from, to, motor, threshold);
+                    }
+                }));
+            }
+
+            // reduce in corpus order
+            Chunk<Sensor, Motor> total = null;
+            for (Future<Chunk<Sensor, Motor>> eachFuture : futures) {
+                if (total == null) {
+                    total = eachFuture.get();
+                } else {
+                    total.merge(eachFuture.get(), threshold);
+                }
+            }
+            if (total == null) {
+                return;
+            }
+            hierarchy.seed(total.types, total.sequence, total.causes);
+
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Pretraining failed.", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static class Chunk<Sensor, Motor> {
+        private final List<MatrixStochasticProcess<Tuple<Sensor, Motor>, Sensor>> types;
+        private final List<Integer> sequence;
+        private final List<Tuple<Sensor, Motor>> causes;
+
+        /**
+         * Segments the transitions from corpus[from] up to corpus[to] like the first level of a hierarchy.
+         */
+        private Chunk(List<Sensor> corpus, int from, int to, Motor motor, float threshold) {
+            this.types = new ArrayList<>();
+            this.sequence = new ArrayList<>();
+            this.causes = new ArrayList<>();
+
+            MatrixStochasticProcess<Tuple<Sensor, Motor>, Sensor> segment = new MatrixStochasticProcess<>(-1);
+            Tuple<Sensor, Motor> cause = null;
+            Sensor effect;
+            for (int i = from; i < to; i++) {
+                cause = new Tuple<>(corpus.get(i), motor);
+                effect = corpus.get(i + 1);
+                if (segment.getFrequency(cause, effect) < segment.getMaxFrequency(cause)) {
+                    this.addSegment(segment, cause, threshold);
+                    segment.clear();
+                }
+                segment.store(cause, effect);
+            }
+            if (cause != null) {
+                this.addSegment(segment, cause, threshold);
+            }
+        }
+
+        private int findType(MatrixStochasticProcess<Tuple<Sensor, Motor>, Sensor> token, float threshold) {
+            int bestType = -1;
+            float thisValue, bestValue = threshold;
+            for (int t = 0; t < this.types.size(); t++) {
+                thisValue = this.types.get(t).getSimilarity(token, bestValue);
+                if (thisValue >= bestValue) {
+                    bestType = t;
+                    bestValue = thisValue;
+                }
+            }
+            if (bestType < 0) {
+                bestType = this.types.size();
+                this.types.add(new MatrixStochasticProcess<Tuple<Sensor, Motor>, Sensor>(bestType));
+            }
+            return bestType;
+        }
+
+        private void addSegment(MatrixStochasticProcess<Tuple<Sensor, Motor>, Sensor> segment, Tuple<Sensor, Motor> cause, float threshold) {
+            int type = this.findType(segment, threshold);
+            this.types.get(type).add(segment);
+            this.sequence.add(type);
+            this.causes.add(cause);
+        }
+
+        /**
+         * Appends the chunk that follows this one.
+         */
+        private void merge(Chunk<Sensor, Motor> next, float threshold) {
+            int[] typeMap = new int[next.types.size()];
+            for (int t = 0; t < typeMap.length; t++) {
+                typeMap[t] = this.findType(next.types.get(t), threshold);
+                this.types.get(typeMap[t]).add(next.types.get(t));
+            }
+            for (int k = 0; k < next.sequence.size(); k++) {
+                this.sequence.add(typeMap[next.sequence.get(k)]);
+                this.causes.add(next.causes.get(k));
+            }
+        }
+    }
+}
@@ -1,14 +1,21 @@
 package net.sophomatics.mains;
 
 import net.sophomatics.agents.Agent;
+import net.sophomatics.agents.AgentProcessor;
 import net.sophomatics.agents.EvertedAgent;
 import net.sophomatics.agents.HierarchicalAgent;
-import net.sophomatics.util.Timer;
+import net.sophomatics.util.ProgressReporter;
 import net.sophomatics.util.Tuple;
 
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.function.Supplier;
 
 public class Text {
     private void start(String text) {
@@ -19,7 +26,7 @@ public class Text {
         //actions.add(false);
 
         //Agent<Character, Boolean> a = new HierarchicalAgent<>(1f, actions);
-        Agent<Character, Boolean> a = new EvertedAgent<>(1d, actions);
+        final Agent<Character, Boolean> a = new EvertedAgent<>(1d, actions);
 
         boolean thisAction;
         Character thisChar;
@@ -30,7 +37,13 @@ public class Text {
         float reward = 0;
 
         int its = 10000;
-        Timer t = new Timer(its, "");
+        ProgressReporter t = new ProgressReporter(its, "");
+        Supplier<String> structure = new Supplier<String>() {
+            @Override
+            public String get() {
+                return Arrays.toString(a.getStructure().toArray());
+            }
+        };
         for (int i = 0; i < its; i++) {
             thisChar = textArray[thisPos];
             if (thisChar.equals(nextChar)) {
@@ -45,7 +58,7 @@ public class Text {
                 thisPos += textArray.length;
             }
 
-            t.tick(Arrays.toString(a.getStructure().toArray()));
+            t.tick(structure);
         }
 
         t.finished();
@@ -56,10 +69,68 @@ public class Text {
         System.out.println(String.format("Prediction success rate: %.2f percent", (float) (success * 100) / its));
     }
 
-    public static void main(String[] args) {
+    private void stream(String text) throws InterruptedException {
+        char[] textArray = text.toCharArray();
+
+        Set<Boolean> actions = new HashSet<>();
+        actions.add(true);
+        Agent<Character, Boolean> a = new EvertedAgent<>(1d, actions);
+
+        final int its = 100000;
+        final int[] success = new int[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        SubmissionPublisher<Tuple<Character, Double>> source = new SubmissionPublisher<>(executor, AgentProcessor.DEFAULT_BATCH_SIZE);
+        AgentProcessor<Character, Boolean> processor = new AgentProcessor<>(a);
+        source.subscribe(processor);
+        processor.subscribe(new Flow.Subscriber<AgentProcessor.Step<Character, Boolean>>() {
+            private Flow.Subscription subscription;
+            private Character nextChar = null;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(AgentProcessor.Step<Character, Boolean> step) {
+                if (step.sensor.equals(this.nextChar)) {
+                    success[0]++;
+                }
+                this.nextChar = step.prediction;
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                throwable.printStackTrace();
+                done.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+                done.countDown();
+            }
+        });
+
+        long start = System.nanoTime();
+        for (int i = 0; i < its; i++) {
+            source.submit(new Tuple<>(textArray[i % textArray.length], 1d));
+        }
+        source.close();
+        done.await();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        executor.shutdown();
+
+        System.out.println(String.format("Streamed %d symbols in %.2f seconds, %.0f symbols/sec", its, seconds, its / seconds));
+        System.out.println(String.format("Streaming prediction success rate: %.2f percent", (float) (success[0] * 100) / its));
+    }
+
+    public static void main(String[] args) throws InterruptedException {
         Text m = new Text();
         String text = "peter piper picked a peck of pickled peppers a peck of pickled peppers peter piper picked if peter piper picked a peck of pickled peppers wheres the peck of pickled peppers peter piper picked ";
         //String text = "Just go to your Package Explorer and press F5, or for some laptops fn+F5. The reason is that eclipse thinks that the files are somewhere, but the files are actually somewhere else. By refreshing it, you put them both on the same page. Don't worry, you won't lose anything, but if you want to be extra careful, just back up the files from your java projects folder to somewhere safe.";
         m.start(text);
+        m.stream(text);
     }
 }
@@ -0,0 +1,272 @@
+package net.sophomatics.planner;
+
+import net.sophomatics.function_approximator.DiscreteApproximator;
+import net.sophomatics.stochastic_process.StochasticProcess;
+import net.sophomatics.util.Tuple;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Parallel Monte Carlo planner. Each decision spreads short rollouts over a pool of workers until a time budget runs
+ * out and picks the motor with the best mean discounted return. Every rollout draws from its own split of the random
+ * generator. Act samples the live model, the caller must not write to it while act runs. Prepare forks the model and
+ * copies the learned rewards, both only when there is a choice to search and they changed since the last fork, so that
+ * the rollouts of the decision run while the learner keeps writing.
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-17
+ */
+public class MonteCarloPlanner<Sensor, Motor> implements Planner<Sensor, Motor> {
+    private final static ExecutorService sharedPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+        private int count = 0;
+
+        @Override
+        public synchronized Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "rollout-" + this.count++);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private final ExecutorService pool;
+    private final int workers;
+    private final long budgetNanos;
+    private final int depth;
+    private final float gamma;
+    private final SplittableRandom random;
+    private final DiscreteApproximator<Tuple<Sensor, Motor>> rewards;
+    private DiscreteApproximator<Tuple<Sensor, Motor>> preparedRewards;
+    private boolean rewardsChanged;
+    private StochasticProcess<Tuple<Sensor, Motor>, Sensor> forkedModel, forkSource;
+    private long forkVersion;
+    private StochasticProcess<Tuple<Sensor, Motor>, Sensor> indexedModel;
+    private long indexedVersion;
+    private Map<Sensor, List<Tuple<Sensor, Motor>>> causes;
+    private long rollouts;
+
+    public MonteCarloPlanner(long seed) {
+        this(Runtime.getRuntime().availableProcessors(), 1000000L, 8, .9f, seed);
+    }
+
+    /**
+     * @param workers     number of parallel rollout tasks per step, at most the number of available processors run at once
+     * @param budgetNanos time budget for a single call to act
+     * @param depth       maximum number of transitions per rollout
+     * @param gamma       discount factor
+     */
+    public MonteCarloPlanner(int workers, long budgetNanos, int depth, float gamma, long seed) {
+        this(workers, budgetNanos, depth, gamma, new SplittableRandom(seed), new DiscreteApproximator<Tuple<Sensor, Motor>>(0));
+    }
+
+    private MonteCarloPlanner(int workers, long budgetNanos, int depth, float gamma, SplittableRandom random, DiscreteApproximator<Tuple<Sensor, Motor>> rewards) {
+        if (workers < 1 || depth < 1) {
+            throw new IllegalArgumentException("Need at least one worker and one transition per rollout.");
+        }
+        this.pool = sharedPool;
+        this.workers = workers;
+        this.budgetNanos = budgetNanos;
+        this.depth = depth;
+        this.gamma = gamma;
+        this.random = random;
+        this.rewards = rewards;
+        this.preparedRewards = null;
+        this.rewardsChanged = true;
+        this.forkedModel = null;
+        this.forkSource = null;
+        this.forkVersion = -1L;
+        this.indexedModel = null;
+        this.indexedVersion = -1L;
+        this.causes = null;
+        this.rollouts = 0L;
+    }
+
+    @Override
+    public void update(StochasticProcess<Tuple<Sensor, Motor>, Sensor> model, Tuple<Sensor, Motor> cause, Sensor effect, double reward) {
+        this.rewards.approximate(cause, (float) reward);
+        this.rewardsChanged = true;
+    }
+
+    @Override
+    public Motor act(StochasticProcess<Tuple<Sensor, Motor>, Sensor> model, Sensor s) {
+        Map<Sensor, List<Tuple<Sensor, Motor>>> causes = this.getCauses(model);
+        List<Tuple<Sensor, Motor>> candidates = causes.get(s);
+        if (candidates == null || candidates.size() == 1) {
+            return candidates == null ? null : candidates.get(0).b;
+        }
+        return this.prepare(model, this.rewards, causes, candidates).get();
+    }
+
+    @Override
+    public Supplier<Motor> prepare(StochasticProcess<Tuple<Sensor, Motor>, Sensor> model, Sensor s) {
+        // the index of the live model is also the index of its fork at the same version
+        Map<Sensor, List<Tuple<Sensor, Motor>>> causes = this.getCauses(model);
+        List<Tuple<Sensor, Motor>> candidates = causes.get(s);
+        if (candidates == null || candidates.size() == 1) {
+            final Motor m = candidates == null ? null : candidates.get(0).b;
+            return new Supplier<Motor>() {
+                @Override
+                public Motor get() {
+                    return m;
+                }
+            };
+        }
+        if (this.forkSource != model || this.forkVersion != model.getVersion()) {
+            this.forkedModel = model.fork();
+            this.forkSource = model;
+            this.forkVersion = model.getVersion();
+        }
+        if (this.rewardsChanged) {
+            this.preparedRewards = this.rewards.copy();
+            this.rewardsChanged = false;
+        }
+        return this.prepare(this.forkedModel, this.preparedRewards, causes, candidates);
+    }
+
+    private Supplier<Motor> prepare(final StochasticProcess<Tuple<Sensor, Motor>, Sensor> model, final DiscreteApproximator<Tuple<Sensor, Motor>> rewards, final Map<Sensor, List<Tuple<Sensor, Motor>>> causes, final List<Tuple<Sensor, Motor>> candidates) {
+        // split on the calling thread, the generator is not thread safe
+        final SplittableRandom[] splits = new SplittableRandom[this.workers];
+        for (int w = 0; w < this.workers; w++) {
+            splits[w] = this.random.split();
+        }
+        return new Supplier<Motor>() {
+            @Override
+            public Motor get() {
+                return MonteCarloPlanner.this.search(model, rewards, causes, candidates, splits);
+            }
+        };
+    }
+
+    private Motor search(StochasticProcess<Tuple<Sensor, Motor>, Sensor> model, DiscreteApproximator<Tuple<Sensor, Motor>> rewards, Map<Sensor, List<Tuple<Sensor, Motor>>> causes, List<Tuple<Sensor, Motor>> candidates, SplittableRandom[] splits) {
+        final long deadline = System.nanoTime() + this.budgetNanos;
+        List<Callable<double[]>> tasks = new ArrayList<>(splits.length);
+        for (SplittableRandom eachSplit : splits) {
+            tasks.add(new Worker(model, rewards, causes, candidates, deadline, eachSplit));
+        }
+
+        double[] totals = new double[2 * candidates.size()];
+        try {
+            for (Future<double[]> eachResult : this.pool.invokeAll(tasks)) {
+                double[] result = eachResult.get();
+                for (int i = 0; i < totals.length; i++) {
+                    totals[i] += result[i];
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Rollout failed.", e.getCause());
+        }
+
+        Motor bestMotor = null;
+        double thisValue, bestValue = Double.NEGATIVE_INFINITY;
+        int n = candidates.size();
+        for (int i = 0; i < n; i++) {
+            this.rollouts += (long) totals[n + i];
+            if (totals[n + i] < 1d) {
+                continue;
+            }
+            thisValue = totals[i] / totals[n + i];
+            if (bestValue < thisValue) {
+                bestValue = thisValue;
+                bestMotor = candidates.get(i).b;
+            }
+        }
+        return bestMotor;
+    }
+
+    /**
+     * @return number of rollouts run so far
+     */
+    public long getRollouts() {
+        return this.rollouts;
+    }
+
+    /**
+     * The fork draws from a split of this planner's random generator.
+     */
+    @Override
+    public MonteCarloPlanner<Sensor, Motor> fork() {
+        return new MonteCarloPlanner<>(this.workers, this.budgetNanos, this.depth, this.gamma, this.random.split(), this.rewards.copy());
+    }
+
+    private Map<Sensor, List<Tuple<Sensor, Motor>>> getCauses(StochasticProcess<Tuple<Sensor, Motor>, Sensor> model) {
+        // index causes by state once per model version
+        if (this.indexedModel == model && this.indexedVersion == model.getVersion()) {
+            return this.causes;
+        }
+        Map<Sensor, List<Tuple<Sensor, Motor>>> index = new HashMap<>();
+        List<Tuple<Sensor, Motor>> stateCauses;
+        for (Tuple<Sensor, Motor> eachCause : model.getAllCauses()) {
+            stateCauses = index.get(eachCause.a);
+            if (stateCauses == null) {
+                stateCauses = new ArrayList<>();
+                index.put(eachCause.a, stateCauses);
+            }
+            stateCauses.add(eachCause);
+        }
+        this.indexedModel = model;
+        this.indexedVersion = model.getVersion();
+        this.causes = index;
+        return index;
+    }
+
+    private class Worker implements Callable<double[]> {
+        private final StochasticProcess<Tuple<Sensor, Motor>, Sensor> model;
+        private final DiscreteApproximator<Tuple<Sensor, Motor>> rewards;
+        private final Map<Sensor, List<Tuple<Sensor, Motor>>> causes;
+        private final List<Tuple<Sensor, Motor>> candidates;
+        private final long deadline;
+        private final SplittableRandom split;
+        private final Random random;
+        private SplittableRandom stream;
+
+        private Worker(StochasticProcess<Tuple<Sensor, Motor>, Sensor> model, DiscreteApproximator<Tuple<Sensor, Motor>> rewards, Map<Sensor, List<Tuple<Sensor, Motor>>> causes, List<Tuple<Sensor, Motor>> candidates, long deadline, final SplittableRandom split) {
+            this.model = model;
+            this.rewards = rewards;
+            this.causes = causes;
+            this.candidates = candidates;
+            this.deadline = deadline;
+            this.split = split;
+            // models sample with java.util.Random, back it by the stream of the current rollout instead of a shared seed
+            this.random = new Random() {
+                @Override
+                protected int next(int bits) {
+                    return Worker.this.stream.nextInt() >>> (32 - bits);
+                }
+            };
+        }
+
+        @Override
+        public double[] call() {
+            int n = this.candidates.size();
+            double[] result = new double[2 * n];
+            // every candidate gets at least one rollout, even when the budget is already spent
+            for (int i = 0, done = 0; done < n || System.nanoTime() < this.deadline; i = (i + 1) % n, done++) {
+                result[i] += this.rollout(this.candidates.get(i));
+                result[n + i]++;
+            }
+            return result;
+        }
+
+        private double rollout(Tuple<Sensor, Motor> cause) {
+            this.stream = this.split.split();
+            double value = 0d, discount = 1d;
+            List<Tuple<Sensor, Motor>> stateCauses;
+            Sensor s;
+            for (int t = 0; t < MonteCarloPlanner.this.depth; t++) {
+                value += discount * this.rewards.getValue(cause);
+                discount *= MonteCarloPlanner.this.gamma;
+                s = this.model.sampleEffect(cause, this.random);
+                stateCauses = s == null ? null : this.causes.get(s);
+                if (stateCauses == null) {
+                    break;
+                }
+                cause = stateCauses.get(this.random.nextInt(stateCauses.size()));
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package net.sophomatics.planner;
+
+import net.sophomatics.stochastic_process.StochasticProcess;
+import net.sophomatics.util.Tuple;
+
+import java.util.function.Supplier;
+
+/**
+ * Interface for reward driven action selection on top of Markov predictors
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-16
+ */
+public interface Planner<Sensor, Motor> {
+    /**
+     * Called after cause led to effect and reward while model was the active context.
+     */
+    void update(StochasticProcess<Tuple<Sensor, Motor>, Sensor> model, Tuple<Sensor, Motor> cause, Sensor effect, double reward);
+
+    /**
+     * @return best motor in state s according to model, null if the planner knows no motor for s
+     */
+    Motor act(StochasticProcess<Tuple<Sensor, Motor>, Sensor> model, Sensor s);
+
+    /**
+     * Same as act, split in two. Prepare is called while neither model nor this planner is written, the returned
+     * decision may then run while both keep learning on another thread.
+     *
+     * @return decision that yields what act would return
+     */
+    Supplier<Motor> prepare(StochasticProcess<Tuple<Sensor, Motor>, Sensor> model, Sensor s);
+
+    /**
+     * @return planner that continues from what this one has learned, updates to either do not affect the other
+     */
+    Planner<Sensor, Motor> fork();
+}
@@ -0,0 +1,279 @@
+package net.sophomatics.planner;
+
+import net.sophomatics.function_approximator.DiscreteApproximator;
+import net.sophomatics.stochastic_process.StochasticProcess;
+import net.sophomatics.util.Tuple;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Prioritized sweeping over the models of a hierarchy level. Values are kept per model, each update backs up at most
+ * a fixed number of state action pairs, starting with those whose values changed most. Backups use the transitions
+ * this planner was updated with in each model, which include the last one, while the hierarchy adds a transition to a
+ * model only when the segment it was observed in ends.
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-16
+ */
+public class PrioritizedSweeping<Sensor, Motor> implements Planner<Sensor, Motor> {
+    public final static int DEFAULT_BUDGET = 16;
+    private final float gamma;
+    private final float minPriority;
+    private final int budget;
+    private final DiscreteApproximator<Tuple<Sensor, Motor>> rewards;
+    private final Map<Integer, ModelValues<Sensor, Motor>> values;
+    private final Map<Tuple<Integer, Tuple<Sensor, Motor>>, Float> priorities;
+    private final PriorityQueue<Item<Sensor, Motor>> queue;
+
+    public PrioritizedSweeping() {
+        this(.9f, 1e-3f, DEFAULT_BUDGET);
+    }
+
+    /**
+     * @param gamma       discount factor
+     * @param minPriority value changes below this are not propagated
+     * @param budget      maximum number of backups per update
+     */
+    public PrioritizedSweeping(float gamma, float minPriority, int budget) {
+        this(gamma, minPriority, budget, new DiscreteApproximator<Tuple<Sensor, Motor>>(0));
+    }
+
+    private PrioritizedSweeping(float gamma, float minPriority, int budget, DiscreteApproximator<Tuple<Sensor, Motor>> rewards) {
+        if (gamma < 0f || 1f <= gamma) {
+            throw new IllegalArgumentException("Discount must be in [0, 1).");
+        }
+        this.gamma = gamma;
+        this.minPriority = minPriority;
+        this.budget = budget;
+        this.rewards = rewards;
+        this.values = new HashMap<>();
+        this.priorities = new HashMap<>();
+        this.queue = new PriorityQueue<>();
+    }
+
+    @Override
+    public void update(StochasticProcess<Tuple<Sensor, Motor>, Sensor> model, Tuple<Sensor, Motor> cause, Sensor effect, double reward) {
+        this.rewards.approximate(cause, (float) reward);
+
+        ModelValues<Sensor, Motor> modelValues = this.values.get(model.getId());
+        if (modelValues == null) {
+            modelValues = new ModelValues<>();
+            this.values.put(model.getId(), modelValues);
+        }
+        // count the transition before backing up, its model does not have it yet
+        modelValues.addTransition(cause, effect);
+
+        this.push(model.getId(), cause, Math.abs(this.backup(modelValues, cause) - modelValues.getQ(cause)));
+        this.sweep();
+    }
+
+    @Override
+    public Motor act(StochasticProcess<Tuple<Sensor, Motor>, Sensor> model, Sensor s) {
+        ModelValues<Sensor, Motor> modelValues = this.values.get(model.getId());
+        if (modelValues == null) {
+            return null;
+        }
+        Set<Motor> motors = modelValues.motors.get(s);
+        if (motors == null) {
+            return null;
+        }
+
+        Motor bestMotor = null;
+        float thisValue, bestValue = Float.NEGATIVE_INFINITY;
+        for (Motor eachMotor : motors) {
+            thisValue = modelValues.getQ(new Tuple<>(s, eachMotor));
+            if (bestValue < thisValue) {
+                bestValue = thisValue;
+                bestMotor = eachMotor;
+            }
+        }
+        return bestMotor;
+    }
+
+    /**
+     * Values are read right away, acting on them is cheap.
+     */
+    @Override
+    public Supplier<Motor> prepare(StochasticProcess<Tuple<Sensor, Motor>, Sensor> model, Sensor s) {
+        final Motor m = this.act(model, s);
+        return new Supplier<Motor>() {
+            @Override
+            public Motor get() {
+                return m;
+            }
+        };
+    }
+
+    /**
+     * Pending backups are not forked.
+     */
+    @Override
+    public PrioritizedSweeping<Sensor, Motor> fork() {
+        PrioritizedSweeping<Sensor, Motor> fork = new PrioritizedSweeping<>(this.gamma, this.minPriority, this.budget, this.rewards.copy());
+        for (Map.Entry<Integer, ModelValues<Sensor, Motor>> entry : this.values.entrySet()) {
+            fork.values.put(entry.getKey(), entry.getValue().copy());
+        }
+        return fork;
+    }
+
+    public float getValue(StochasticProcess<Tuple<Sensor, Motor>, Sensor> model, Sensor s) {
+        ModelValues<Sensor, Motor> modelValues = this.values.get(model.getId());
+        return modelValues == null ? 0f : modelValues.getV(s);
+    }
+
+    private void push(int modelId, Tuple<Sensor, Motor> cause, float priority) {
+        if (priority < this.minPriority) {
+            return;
+        }
+        Tuple<Integer, Tuple<Sensor, Motor>> key = new Tuple<>(modelId, cause);
+        Float queued = this.priorities.get(key);
+        if (queued != null && priority <= queued) {
+            return;
+        }
+        // superseded entries stay in the queue and are skipped when polled
+        this.priorities.put(key, priority);
+        this.queue.add(new Item<>(key, priority));
+    }
+
+    private void sweep() {
+        Item<Sensor, Motor> item;
+        Float queued;
+        ModelValues<Sensor, Motor> modelValues;
+        Sensor state;
+        float oldValue, change;
+        for (int i = 0; i < this.budget && !this.queue.isEmpty(); ) {
+            item = this.queue.poll();
+            queued = this.priorities.get(item.key);
+            if (queued == null || queued != item.priority) {
+                continue;
+            }
+            this.priorities.remove(item.key);
+            i++;
+
+            modelValues = this.values.get(item.key.a);
+            state = item.key.b.a;
+            oldValue = modelValues.getV(state);
+            modelValues.q.put(item.key.b, this.backup(modelValues, item.key.b));
+            modelValues.updateV(state);
+            change = Math.abs(modelValues.getV(state) - oldValue);
+
+            Set<Tuple<Sensor, Motor>> predecessors = modelValues.predecessors.get(state);
+            if (change < this.minPriority || predecessors == null) {
+                continue;
+            }
+            for (Tuple<Sensor, Motor> eachCause : predecessors) {
+                this.push(item.key.a, eachCause, this.gamma * change * modelValues.getProbability(eachCause, state));
+            }
+        }
+    }
+
+    private float backup(ModelValues<Sensor, Motor> modelValues, Tuple<Sensor, Motor> cause) {
+        float value = this.rewards.getValue(cause);
+        Map<Sensor, Integer> effects = modelValues.counts.get(cause);
+        if (effects == null) {
+            return value;
+        }
+        float mass = modelValues.mass.get(cause);
+        float expectation = 0f;
+        for (Map.Entry<Sensor, Integer> entry : effects.entrySet()) {
+            expectation += entry.getValue() / mass * modelValues.getV(entry.getKey());
+        }
+        return value + this.gamma * expectation;
+    }
+
+    private static class ModelValues<Sensor, Motor> {
+        private final Map<Sensor, Float> v = new HashMap<>();
+        private final Map<Tuple<Sensor, Motor>, Float> q = new HashMap<>();
+        private final Map<Sensor, Set<Tuple<Sensor, Motor>>> predecessors = new HashMap<>();
+        private final Map<Sensor, Set<Motor>> motors = new HashMap<>();
+        private final Map<Tuple<Sensor, Motor>, Map<Sensor, Integer>> counts = new HashMap<>();
+        private final Map<Tuple<Sensor, Motor>, Integer> mass = new HashMap<>();
+
+        private ModelValues<Sensor, Motor> copy() {
+            ModelValues<Sensor, Motor> copy = new ModelValues<>();
+            copy.v.putAll(this.v);
+            copy.q.putAll(this.q);
+            for (Map.Entry<Sensor, Set<Tuple<Sensor, Motor>>> entry : this.predecessors.entrySet()) {
+                copy.predecessors.put(entry.getKey(), new LinkedHashSet<>(entry.getValue()));
+            }
+            for (Map.Entry<Sensor, Set<Motor>> entry : this.motors.entrySet()) {
+                copy.motors.put(entry.getKey(), new HashSet<>(entry.getValue()));
+            }
+            for (Map.Entry<Tuple<Sensor, Motor>, Map<Sensor, Integer>> entry : this.counts.entrySet()) {
+                copy.counts.put(entry.getKey(), new LinkedHashMap<>(entry.getValue()));
+            }
+            copy.mass.putAll(this.mass);
+            return copy;
+        }
+
+        private void addTransition(Tuple<Sensor, Motor> cause, Sensor effect) {
+            Set<Tuple<Sensor, Motor>> causes = this.predecessors.get(effect);
+            if (causes == null) {
+                // insertion ordered, so that a copy queues predecessors of equal priority in the same order
+                causes = new LinkedHashSet<>();
+                this.predecessors.put(effect, causes);
+            }
+            causes.add(cause);
+
+            Set<Motor> stateMotors = this.motors.get(cause.a);
+            if (stateMotors == null) {
+                stateMotors = new HashSet<>();
+                this.motors.put(cause.a, stateMotors);
+            }
+            stateMotors.add(cause.b);
+
+            Map<Sensor, Integer> effects = this.counts.get(cause);
+            if (effects == null) {
+                // insertion ordered, so that a copy sums backups in the same order
+                effects = new LinkedHashMap<>();
+                this.counts.put(cause, effects);
+            }
+            Integer count = effects.get(effect);
+            effects.put(effect, count == null ? 1 : count + 1);
+            Integer causeMass = this.mass.get(cause);
+            this.mass.put(cause, causeMass == null ? 1 : causeMass + 1);
+        }
+
+        private float getProbability(Tuple<Sensor, Motor> cause, Sensor effect) {
+            Map<Sensor, Integer> effects = this.counts.get(cause);
+            Integer count = effects == null ? null : effects.get(effect);
+            return count == null ? 0f : (float) count / this.mass.get(cause);
+        }
+
+        private float getV(Sensor s) {
+            Float value = this.v.get(s);
+            return value == null ? 0f : value;
+        }
+
+        private float getQ(Tuple<Sensor, Motor> cause) {
+            Float value = this.q.get(cause);
+            return value == null ? 0f : value;
+        }
+
+        private void updateV(Sensor s) {
+            float max = Float.NEGATIVE_INFINITY;
+            for (Motor eachMotor : this.motors.get(s)) {
+                max = Math.max(max, this.getQ(new Tuple<>(s, eachMotor)));
+            }
+            this.v.put(s, max);
+        }
+    }
+
+    private static class Item<Sensor, Motor> implements Comparable<Item<Sensor, Motor>> {
+        private final Tuple<Integer, Tuple<Sensor, Motor>> key;
+        private final float priority;
+
+        private Item(Tuple<Integer, Tuple<Sensor, Motor>> key, float priority) {
+            this.key = key;
+            this.priority = priority;
+        }
+
+        @Override
+        public int compareTo(Item<Sensor, Motor> other) {
+            // highest priority first
+            return Float.compare(other.priority, this.priority);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package net.sophomatics.stochastic_process;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Walker's alias table for sampling from a discrete frequency distribution in constant time
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-15
+ */
+public class AliasTable<E> {
+    private final Object[] values;
+    private final double[] probabilities;
+    private final int[] aliases;
+    private final long mass;
+
+    /**
+     * @param values      outcomes
+     * @param frequencies non-negative frequency of each outcome, at least one positive
+     */
+    public AliasTable(List<E> values, long[] frequencies) {
+        int n = values.size();
+        if (n < 1 || frequencies.length != n) {
+            throw new IllegalArgumentException("Alias tables need one frequency per outcome.");
+        }
+        long mass = 0L;
+        for (long frequency : frequencies) {
+            if (frequency < 0L) {
+                throw new IllegalArgumentException("Frequencies must not be negative.");
+            }
+            mass += frequency;
+        }
+        if (mass < 1L) {
+            throw new IllegalArgumentException("Alias tables need a positive mass.");
+        }
+
+        this.mass = mass;
+        this.values = values.toArray();
+        this.probabilities = new double[n];
+        this.aliases = new int[n];
+
+        // Vose's method, scaled probabilities below one are topped up by an alias above one
+        double[] scaled = new double[n];
+        int[] small = new int[n], large = new int[n];
+        int smallSize = 0, largeSize = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = (double) frequencies[i] * n / mass;
+            if (scaled[i] < 1d) {
+                small[smallSize++] = i;
+            } else {
+                large[largeSize++] = i;
+            }
+        }
+        int s, l;
+        while (0 < smallSize && 0 < largeSize) {
+            s = small[--smallSize];
+            l = large[--largeSize];
+            this.probabilities[s] = scaled[s];
+            this.aliases[s] = l;
+            scaled[l] = (scaled[l] + scaled[s]) - 1d;
+            if (scaled[l] < 1d) {
+                small[smallSize++] = l;
+            } else {
+                large[largeSize++] = l;
+            }
+        }
+        // remaining entries are one up to rounding errors
+        while (0 < largeSize) {
+            l = large[--largeSize];
+            this.probabilities[l] = 1d;
+            this.aliases[l] = l;
+        }
+        while (0 < smallSize) {
+            s = small[--smallSize];
+            this.probabilities[s] = 1d;
+            this.aliases[s] = s;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public E sample(Random random) {
+        double u = random.nextDouble() * this.values.length;
+        int i = (int) u;
+        return (E) this.values[u - i < this.probabilities[i] ? i : this.aliases[i]];
+    }
+
+    public long getMass() {
+        return this.mass;
+    }
+
+    public int size() {
+        return this.values.length;
+    }
+}
@@ -0,0 +1,299 @@
+package net.sophomatics.stochastic_process;
+
+import net.sophomatics.events.MergeEvent;
+import net.sophomatics.stochastic_process.matrix.NestedMapMatrix;
+import net.sophomatics.stochastic_process.matrix.OffHeapArena;
+import net.sophomatics.util.Identifiable;
+import net.sophomatics.util.Interner;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Markov predictor whose frequencies live in an off-heap arena shared by all models of a factory
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-04
+ */
+public class ArenaStochasticProcess<Condition, Consequence> extends Identifiable implements StochasticProcess<Condition, Consequence> {
+    private final OffHeapArena arena;
+    private final Interner<Condition> causeIds;
+    private final Interner<Consequence> effectIds;
+    private long version;
+
+    public ArenaStochasticProcess(int id, OffHeapArena arena, Interner<Condition> causeIds, Interner<Consequence> effectIds) {
+        super(id);
+        this.arena = arena;
+        this.causeIds = causeIds;
+        this.effectIds = effectIds;
+        this.version = 0L;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (other == null) {
+            return false;
+        } else if (other == this) {
+            return true;
+        } else if (!(other instanceof ArenaStochasticProcess)) {
+            return false;
+        }
+        ArenaStochasticProcess<?, ?> cast = (ArenaStochasticProcess<?, ?>) other;
+        return cast.arena == this.arena && cast.getId() == this.getId();
+    }
+
+    @Override
+    public int hashCode() {
+        return 37 * 3 + this.getId();
+    }
+
+    @Override
+    public void clear() {
+        this.arena.clear(this.getId());
+        this.version++;
+    }
+
+    @Override
+    public long getVersion() {
+        return this.version;
+    }
+
+    @Override
+    public StochasticProcess<Condition, Consequence> fork() {
+        throw new UnsupportedOperationException("Off-heap processes cannot be forked.");
+    }
+
+    @Override
+    public String print() {
+        NestedMapMatrix<Condition, Consequence, Integer> matrix = new NestedMapMatrix<>();
+        int cause;
+        for (int row = this.arena.getFirstRow(this.getId()); row >= 0; row = this.arena.getNextRow(row)) {
+            cause = this.arena.getRowCause(row);
+            for (int cell = this.arena.getFirstCell(row); cell >= 0; cell = this.arena.getNextCell(cell)) {
+                matrix.put(this.causeIds.get(cause), this.effectIds.get(this.arena.getCellEffect(cell)), this.arena.getCellValue(cell));
+            }
+        }
+        return this.toString() + "\n" + matrix.print();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s%s", this.getClass().getSimpleName(), this.getId());
+    }
+
+    @Override
+    public int getFrequency(Condition cause, Consequence effect) {
+        int causeId = this.causeIds.findId(cause);
+        int effectId = this.effectIds.findId(effect);
+        if (causeId < 0 || effectId < 0) {
+            return 0;
+        }
+        return this.arena.getCount(this.getId(), causeId, effectId);
+    }
+
+    @Override
+    public int getMaxFrequency(Condition cause) {
+        int causeId = this.causeIds.findId(cause);
+        if (causeId < 0) {
+            return 0;
+        }
+        return this.arena.getMaxCount(this.getId(), causeId);
+    }
+
+    @Override
+    public int getMass(Condition cause) {
+        int causeId = this.causeIds.findId(cause);
+        if (causeId < 0) {
+            return 0;
+        }
+        return this.arena.getMass(this.getId(), causeId);
+    }
+
+    @Override
+    public Set<Consequence> getAllEffects() {
+        Set<Consequence> allCons = new HashSet<>();
+        for (int row = this.arena.getFirstRow(this.getId()); row >= 0; row = this.arena.getNextRow(row)) {
+            for (int cell = this.arena.getFirstCell(row); cell >= 0; cell = this.arena.getNextCell(cell)) {
+                allCons.add(this.effectIds.get(this.arena.getCellEffect(cell)));
+            }
+        }
+        return Collections.unmodifiableSet(allCons);
+    }
+
+    @Override
+    public Set<Condition> getAllCauses() {
+        Set<Condition> allCauses = new HashSet<>();
+        for (int row = this.arena.getFirstRow(this.getId()); row >= 0; row = this.arena.getNextRow(row)) {
+            allCauses.add(this.causeIds.get(this.arena.getRowCause(row)));
+        }
+        return Collections.unmodifiableSet(allCauses);
+    }
+
+    @Override
+    public Set<Consequence> getEffects(Condition cause) {
+        Set<Consequence> effects = new HashSet<>();
+        int row = this.findRow(cause);
+        if (row < 0) {
+            return effects;
+        }
+        for (int cell = this.arena.getFirstCell(row); cell >= 0; cell = this.arena.getNextCell(cell)) {
+            effects.add(this.effectIds.get(this.arena.getCellEffect(cell)));
+        }
+        return effects;
+    }
+
+    private int findRow(Condition cause) {
+        int causeId = this.causeIds.findId(cause);
+        if (causeId < 0) {
+            return -1;
+        }
+        return this.arena.getRow(this.getId(), causeId);
+    }
+
+    @Override
+    public float getProbability(Condition cause, Consequence effect) {
+        int mass = this.getMass(cause);
+        if (mass < 1) {
+            return 1f;
+        }
+        return (float) this.getFrequency(cause, effect) / mass;
+    }
+
+    @Override
+    public void store(Condition cause, Consequence effect) {
+        this.store(cause, effect, 1);
+    }
+
+    @Override
+    public void store(Condition cause, Consequence effect, int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Count must be positive.");
+        }
+        this.arena.add(this.getId(), this.causeIds.getId(cause), this.effectIds.getId(effect), count);
+        this.version++;
+    }
+
+    @Override
+    public Consequence getEffect(Condition cause) {
+        int row = this.findRow(cause);
+        if (row < 0) {
+            return null;
+        }
+
+        int bestEffect = -1;
+        int thisValue, maxValue = -1;
+        for (int cell = this.arena.getFirstCell(row); cell >= 0; cell = this.arena.getNextCell(cell)) {
+            thisValue = this.arena.getCellValue(cell);
+            if (maxValue < thisValue) {
+                maxValue = thisValue;
+                bestEffect = this.arena.getCellEffect(cell);
+            }
+        }
+        return bestEffect < 0 ? null : this.effectIds.get(bestEffect);
+    }
+
+    @Override
+    public Consequence sampleEffect(Condition cause, Random random) {
+        int row = this.findRow(cause);
+        if (row < 0) {
+            return null;
+        }
+        int mass = this.arena.getMass(this.getId(), this.arena.getRowCause(row));
+        if (mass < 1) {
+            return null;
+        }
+
+        int target = random.nextInt(mass);
+        int last = -1;
+        for (int cell = this.arena.getFirstCell(row); cell >= 0; cell = this.arena.getNextCell(cell)) {
+            last = cell;
+            target -= this.arena.getCellValue(cell);
+            if (target < 0) {
+                break;
+            }
+        }
+        return this.effectIds.get(this.arena.getCellEffect(last));
+    }
+
+    @Override
+    public float getSimilarity(StochasticProcess<Condition, Consequence> other) {
+        long dotProduct, normA, normB;
+        normA = this.arena.getSquareSum(this.getId());
+
+        if (other instanceof ArenaStochasticProcess && ((ArenaStochasticProcess) other).arena == this.arena) {
+            dotProduct = this.arena.getDotProduct(this.getId(), other.getId());
+            normB = this.arena.getSquareSum(other.getId());
+
+        } else {
+            int a, b;
+            dotProduct = 0L;
+            normB = 0L;
+            for (Condition eachCause : other.getAllCauses()) {
+                for (Consequence eachEffect : other.getEffects(eachCause)) {
+                    a = this.getFrequency(eachCause, eachEffect);
+                    b = other.getFrequency(eachCause, eachEffect);
+                    normB += (long) b * b;
+                    dotProduct += (long) a * b;
+                }
+            }
+        }
+
+        if (normA < 1 || normB < 1) {
+            return 0f;
+        }
+        double cosineSimilarity = dotProduct / Math.sqrt((double) normA * normB);
+        return (float) ((cosineSimilarity + 1) / 2f);
+    }
+
+    @Override
+    public float getSimilarity(StochasticProcess<Condition, Consequence> other, float bound) {
+        return this.getSimilarity(other);
+    }
+
+    @Override
+    public void add(StochasticProcess<Condition, Consequence> other) {
+        int thisId = this.getId();
+        this.version++;
+        MergeEvent event = new MergeEvent();
+        event.begin();
+        int cells = 0;
+        if (other instanceof ArenaStochasticProcess && ((ArenaStochasticProcess) other).arena == this.arena) {
+            // copy cells first, adding may rehash the arena and invalidate the chains
+            int otherId = other.getId();
+            int size = this.arena.getCellCount(otherId);
+            int[] causes = new int[size], effects = new int[size], values = new int[size];
+            int cause, i = 0;
+            for (int row = this.arena.getFirstRow(otherId); row >= 0; row = this.arena.getNextRow(row)) {
+                cause = this.arena.getRowCause(row);
+                for (int cell = this.arena.getFirstCell(row); cell >= 0; cell = this.arena.getNextCell(cell)) {
+                    causes[i] = cause;
+                    effects[i] = this.arena.getCellEffect(cell);
+                    values[i] = this.arena.getCellValue(cell);
+                    i++;
+                }
+            }
+            for (i = 0; i < size; i++) {
+                this.arena.add(thisId, causes[i], effects[i], values[i]);
+            }
+            cells = size;
+        } else {
+            int causeId;
+            for (Condition eachCause : other.getAllCauses()) {
+                causeId = this.causeIds.getId(eachCause);
+                for (Consequence eachEffect : other.getEffects(eachCause)) {
+                    this.arena.add(thisId, causeId, this.effectIds.getId(eachEffect), other.getFrequency(eachCause, eachEffect));
+                    cells++;
+                }
+            }
+        }
+
+        if (event.shouldCommit()) {
+            event.modelId = thisId;
+            event.cells = cells;
+            event.commit();
+        }
+    }
+}
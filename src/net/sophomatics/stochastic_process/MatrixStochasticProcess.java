@@ -1,10 +1,18 @@
 package net.sophomatics.stochastic_process;
 
-import net.sophomatics.stochastic_process.matrix.Matrix;
-import net.sophomatics.stochastic_process.matrix.NestedMapMatrix;
+import net.sophomatics.events.MergeEvent;
+import net.sophomatics.stochastic_process.matrix.CounterMatrix;
+import net.sophomatics.stochastic_process.matrix.CounterRow;
+import net.sophomatics.stochastic_process.matrix.DenseMatrix;
+import net.sophomatics.stochastic_process.matrix.FrequencyMatrix;
+import net.sophomatics.stochastic_process.matrix.FrozenMatrix;
+import net.sophomatics.stochastic_process.matrix.OverlayMatrix;
+import net.sophomatics.stochastic_process.matrix.Owner;
 import net.sophomatics.util.Identifiable;
+import net.sophomatics.util.Interner;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 /**
@@ -15,12 +23,274 @@ import java.util.logging.Logger;
  * @since 2015-08-05
  */
 public class MatrixStochasticProcess<Condition, Consequence> extends Identifiable implements StochasticProcess<Condition, Consequence> {
-    private final Matrix<Condition, Consequence, Integer> matrix;
-    private final Logger logger = Logger.getLogger(this.getClass().getSimpleName());
+    private final static int DENSE_MAX_CELLS = 4096;
+    private final static double DENSE_MIN_FILL = .25d;
+    private final static int ADAPT_INTERVAL = 64;
+    // rough heap footprint of the process itself, of a sparse row, of a sparse cell and of a cell's column entry
+    private final static int BASE_BYTES = 256;
+    private final static int ROW_BYTES = 128;
+    private final static int CELL_BYTES = 16;
+    private final static int COLUMN_CELL_BYTES = 48;
+    private final static Logger logger = Logger.getLogger(MatrixStochasticProcess.class.getSimpleName());
+    private final Interner<Condition> causeIds;
+    private final Interner<Consequence> effectIds;
+    private final Map<Condition, Map<Consequence, Double>> logProbabilities;
+    private final Map<Condition, AliasTable<Consequence>> aliasTables;
+    private final Map<Consequence, Column<Condition>> columns;
+    private final Set<Consequence> allEffects;
+    private final Set<Condition> allCauses;
+    private FrequencyMatrix<Condition, Consequence> matrix;
+    private SimilarityMeasure measure;
+    private long version;
+    private boolean written;
+    private int writes;
+    private int idleRounds;
+    private Owner owner;
+    private long cells;
+    private long bytes;
+    // column entries and frozen matrix that this process still shares with the process it was forked from
+    private long sharedColumnCells;
+    private boolean sharedFrozen;
+    private MemoryAccount account;
 
     public MatrixStochasticProcess(int id) {
+        this(id, new Interner<Condition>(), new Interner<Consequence>());
+    }
+
+    public MatrixStochasticProcess(int id, Interner<Condition> causeIds, Interner<Consequence> effectIds) {
         super(id);
-        this.matrix = new NestedMapMatrix<>();
+        this.causeIds = causeIds;
+        this.effectIds = effectIds;
+        // filled lazily by readers, which may be tenants of a library on several threads
+        this.logProbabilities = new ConcurrentHashMap<>();
+        this.aliasTables = new ConcurrentHashMap<>();
+        this.columns = new HashMap<>();
+        this.allEffects = Collections.unmodifiableSet(this.columns.keySet());
+        this.allCauses = new AbstractSet<Condition>() {
+            // the matrix is swapped when storage changes, always delegate to the current one
+            @Override
+            public Iterator<Condition> iterator() {
+                return Collections.unmodifiableSet(MatrixStochasticProcess.this.matrix.keySet()).iterator();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return MatrixStochasticProcess.this.matrix.containsKey(o);
+            }
+
+            @Override
+            public int size() {
+                return MatrixStochasticProcess.this.matrix.size();
+            }
+        };
+        this.matrix = new CounterMatrix<>();
+        this.measure = SimilarityMeasure.COSINE;
+        this.version = 0L;
+        this.written = false;
+        this.writes = 0;
+        this.idleRounds = 0;
+        this.owner = new Owner();
+        this.cells = 0L;
+        this.sharedColumnCells = 0L;
+        this.sharedFrozen = false;
+        this.bytes = this.getEstimatedBytes();
+        this.account = null;
+    }
+
+    @Override
+    public MatrixStochasticProcess<Condition, Consequence> fork() {
+        MatrixStochasticProcess<Condition, Consequence> fork = new MatrixStochasticProcess<>(this.getId(), this.causeIds, this.effectIds);
+        fork.matrix = this.matrix.fork();
+        fork.logProbabilities.putAll(this.logProbabilities);
+        fork.aliasTables.putAll(this.aliasTables);
+        fork.columns.putAll(this.columns);
+        fork.measure = this.measure;
+        fork.version = this.version;
+        fork.written = this.written;
+        fork.writes = this.writes;
+        fork.idleRounds = this.idleRounds;
+        fork.cells = this.cells;
+        fork.sharedColumnCells = this.cells;
+        fork.sharedFrozen = this.isFrozen();
+        fork.bytes = fork.getChargedBytes();
+        // columns written so far are shared from now on
+        this.owner = this.owner.renew();
+        return fork;
+    }
+
+    /**
+     * Unlike fork, this process is not touched. It must not be written anymore, the overlay reads its rows until it
+     * writes them.
+     *
+     * @return process with the same frequencies that copies only the rows it writes
+     */
+    MatrixStochasticProcess<Condition, Consequence> overlay() {
+        MatrixStochasticProcess<Condition, Consequence> overlay = new MatrixStochasticProcess<>(this.getId(), this.causeIds, this.effectIds);
+        overlay.matrix = new OverlayMatrix<>(this.matrix, this.cells);
+        overlay.columns.putAll(this.columns);
+        overlay.measure = this.measure;
+        overlay.version = this.version;
+        overlay.cells = this.cells;
+        overlay.sharedColumnCells = this.cells;
+        overlay.bytes = overlay.getChargedBytes();
+        return overlay;
+    }
+
+    public SimilarityMeasure getMeasure() {
+        return this.measure;
+    }
+
+    public void setMeasure(SimilarityMeasure measure) {
+        this.measure = measure;
+    }
+
+    /**
+     * Reports the current footprint and all later changes to the account, caches are not accounted. Storage that a fork
+     * or overlay got from its source is reported by the source only, the rows and columns it copies before writing them
+     * are reported by itself.
+     */
+    public void setAccount(MemoryAccount account) {
+        if (this.account != null) {
+            this.account.add(-this.bytes);
+        }
+        this.account = account;
+        if (account != null) {
+            account.add(this.bytes);
+        }
+    }
+
+    /**
+     * @return estimated heap bytes of the frequencies, derived from counts that are kept up to date on every write
+     */
+    public long getEstimatedBytes() {
+        long matrixBytes;
+        if (this.matrix instanceof FrozenMatrix) {
+            matrixBytes = ((FrozenMatrix<Condition, Consequence>) this.matrix).getEstimatedBytes();
+        } else if (this.matrix instanceof DenseMatrix) {
+            matrixBytes = ((DenseMatrix<Condition, Consequence>) this.matrix).getEstimatedBytes();
+        } else {
+            matrixBytes = (long) ROW_BYTES * this.matrix.size() + CELL_BYTES * this.cells;
+        }
+        return BASE_BYTES + matrixBytes + COLUMN_CELL_BYTES * this.cells;
+    }
+
+    private long getChargedBytes() {
+        long sharedBytes = COLUMN_CELL_BYTES * this.sharedColumnCells;
+        if (this.matrix instanceof CounterMatrix) {
+            CounterMatrix<Condition, Consequence> counter = (CounterMatrix<Condition, Consequence>) this.matrix;
+            sharedBytes += (long) ROW_BYTES * counter.getSharedRows() + CELL_BYTES * counter.getSharedCells();
+        } else if (this.matrix instanceof OverlayMatrix) {
+            OverlayMatrix<Condition, Consequence> overlay = (OverlayMatrix<Condition, Consequence>) this.matrix;
+            sharedBytes += (long) ROW_BYTES * overlay.getSharedRows() + CELL_BYTES * overlay.getSharedCells();
+        } else if (this.isFrozen() && this.sharedFrozen) {
+            sharedBytes += ((FrozenMatrix<Condition, Consequence>) this.matrix).getEstimatedBytes();
+        }
+        return this.getEstimatedBytes() - sharedBytes;
+    }
+
+    private void account() {
+        long bytes = this.getChargedBytes();
+        if (this.account != null) {
+            this.account.add(bytes - this.bytes);
+        }
+        this.bytes = bytes;
+    }
+
+    /**
+     * @return number of freeze rounds in a row without writes, see StochasticProcessFactory.tick
+     */
+    public int getIdleRounds() {
+        return this.idleRounds;
+    }
+
+    public boolean isFrozen() {
+        return this.matrix instanceof FrozenMatrix;
+    }
+
+    public boolean isDense() {
+        return this.matrix instanceof DenseMatrix;
+    }
+
+    public void freeze() {
+        // freezing an overlay would copy all rows it reads from the library
+        if (this.isFrozen() || this.matrix instanceof OverlayMatrix) {
+            return;
+        }
+        FrozenMatrix<Condition, Consequence> frozen = FrozenMatrix.freeze(this.matrix, this.causeIds, this.effectIds);
+        if (frozen != null) {
+            this.matrix = frozen;
+            this.sharedFrozen = false;
+            this.account();
+        }
+    }
+
+    boolean freezeIfIdle() {
+        if (this.written) {
+            this.written = false;
+            this.idleRounds = 0;
+            return false;
+        }
+        this.idleRounds++;
+        this.freeze();
+        return true;
+    }
+
+    private FrequencyMatrix<Condition, Consequence> getMutableMatrix() {
+        if (this.isFrozen()) {
+            this.matrix = ((FrozenMatrix<Condition, Consequence>) this.matrix).thaw();
+        }
+        this.written = true;
+        if (++this.writes % ADAPT_INTERVAL == 0) {
+            this.adaptStorage();
+        }
+        return this.matrix;
+    }
+
+    private void adaptStorage() {
+        // switch between sparse and dense storage depending on alphabet size and fill ratio
+        long area = (long) this.causeIds.size() * this.effectIds.size();
+        if (this.isDense()) {
+            DenseMatrix<Condition, Consequence> dense = (DenseMatrix<Condition, Consequence>) this.matrix;
+            if (DENSE_MAX_CELLS < area || dense.getFillRatio() < DENSE_MIN_FILL / 2d) {
+                this.matrix = dense.toSparse();
+            }
+
+        } else if (area <= DENSE_MAX_CELLS) {
+            int cells = 0;
+            for (Map<Consequence, Integer> row : this.matrix.values()) {
+                cells += row.size();
+            }
+            if (DENSE_MIN_FILL * area <= cells) {
+                DenseMatrix<Condition, Consequence> dense = DenseMatrix.of(this.matrix, this.causeIds, this.effectIds);
+                if (dense != null) {
+                    this.matrix = dense;
+                }
+            }
+        }
+    }
+
+    private void increment(FrequencyMatrix<Condition, Consequence> mutable, Condition cause, Consequence effect, long delta) {
+        if (mutable instanceof DenseMatrix && !((DenseMatrix<Condition, Consequence>) mutable).canHold(cause, effect, delta)) {
+            this.matrix = ((DenseMatrix<Condition, Consequence>) mutable).toSparse();
+            mutable = this.matrix;
+        }
+        long count = mutable.increment(cause, effect, delta);
+        this.logProbabilities.remove(cause);
+        this.aliasTables.remove(cause);
+
+        Column<Condition> column = this.columns.get(effect);
+        if (column == null || column.owner != this.owner) {
+            if (column != null && !this.owner.isSameOrigin(column.owner)) {
+                this.sharedColumnCells -= column.causes.size();
+            }
+            column = column == null ? new Column<Condition>(this.owner) : new Column<>(column, this.owner);
+            this.columns.put(effect, column);
+        }
+        if (0 < delta && count == delta) {
+            column.causes.add(cause);
+            this.cells++;
+        }
+        column.mass += delta;
     }
 
     @Override
@@ -29,7 +299,9 @@ public class MatrixStochasticProcess<Condition, Consequence> extends Identifiabl
             return false;
         } else if (other == this) {
             return true;
-        } else if (!(other instanceof StochasticProcess)) {
+        } else if (other instanceof OverlayStochasticProcess) {
+            return other.equals(this);
+        } else if (!(other instanceof MatrixStochasticProcess)) {
             return false;
         }
         MatrixStochasticProcess cast = (MatrixStochasticProcess) other;
@@ -43,7 +315,24 @@ public class MatrixStochasticProcess<Condition, Consequence> extends Identifiabl
 
     @Override
     public void clear() {
-        this.matrix.clear();
+        if (this.isFrozen()) {
+            this.matrix = new CounterMatrix<>();
+        } else {
+            this.matrix.clear();
+        }
+        this.logProbabilities.clear();
+        this.aliasTables.clear();
+        this.columns.clear();
+        this.version++;
+        this.written = true;
+        this.cells = 0L;
+        this.sharedColumnCells = 0L;
+        this.account();
+    }
+
+    @Override
+    public long getVersion() {
+        return this.version;
     }
 
     public String print() {
@@ -57,59 +346,69 @@ public class MatrixStochasticProcess<Condition, Consequence> extends Identifiabl
 
     @Override
     public int getFrequency(Condition cause, Consequence effect) {
-        Integer f = this.matrix.get(cause, effect);
-        if (f == null) {
-            return 0;
-        }
-        return f;
+        return CounterRow.saturate(this.matrix.getCount(cause, effect));
     }
 
     @Override
     public int getMaxFrequency(Condition cause) {
-        Map<Consequence, Integer> subMap = this.matrix.get(cause);
-        if (subMap == null) {
-            return 0;
-        }
-
-        int maxFreq = -1;
-        for (int eachFreq : subMap.values()) {
-            if (maxFreq < eachFreq) {
-                maxFreq = eachFreq;
-            }
-        }
-        return maxFreq;
+        return CounterRow.saturate(this.matrix.getMaxCount(cause));
     }
 
     @Override
     public int getMass(Condition cause) {
-        Map<Consequence, Integer> subMap = this.matrix.get(cause);
-        if (subMap == null) {
-            return 0;
-        }
-        int mass = 0;
-        for (int eachFreq : subMap.values()) {
-            mass += eachFreq;
-        }
-        return mass;
+        return CounterRow.saturate(this.matrix.getMass(cause));
     }
 
+    /**
+     * @return read-only view of all effects with a non-zero frequency
+     */
     @Override
     public Set<Consequence> getAllEffects() {
-        Set<Consequence> allCons = new HashSet<>();
-        for (Condition eachCondition : this.matrix.keySet()) {
-            allCons.addAll(this.matrix.getKeys(eachCondition));
-        }
-        return allCons;
+        return this.allEffects;
     }
 
+    /**
+     * @return read-only view of all causes with a non-zero mass
+     */
     @Override
     public Set<Condition> getAllCauses() {
-        return new HashSet<>(this.matrix.keySet());
+        return this.allCauses;
+    }
+
+    /**
+     * @return read-only view of all causes effect has been observed after
+     */
+    public Set<Condition> getCauses(Consequence effect) {
+        Column<Condition> column = this.columns.get(effect);
+        if (column == null) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(column.causes);
+    }
+
+    public long getColumnMass(Consequence effect) {
+        Column<Condition> column = this.columns.get(effect);
+        return column == null ? 0L : column.mass;
+    }
+
+    @Override
+    public Set<Consequence> getEffects(Condition cause) {
+        return this.matrix.getKeys(cause);
     }
 
     @Override
     public void store(Condition cause, Consequence effect) {
-        this.matrix.put(cause, effect, this.getFrequency(cause, effect) + 1);
+        this.store(cause, effect, 1);
+    }
+
+    @Override
+    public void store(Condition cause, Consequence effect, int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Count must be positive.");
+        }
+        this.increment(this.getMutableMatrix(), cause, effect, count);
+        this.version++;
+        this.account();
     }
 
     @Override
@@ -119,65 +418,124 @@ public class MatrixStochasticProcess<Condition, Consequence> extends Identifiabl
             return null;
         }
 
-        List<Consequence> nextList = new ArrayList<>();
+        // first effect with the maximum frequency wins
+        Consequence bestEffect = null;
         int thisValue, maxValue = -1;
         for (Map.Entry<Consequence, Integer> entry : row.entrySet()) {
             thisValue = entry.getValue();
-            if (thisValue == maxValue) {
-                nextList.add(entry.getKey());
-
-            } else if (maxValue < thisValue) {
-                nextList.clear();
-                nextList.add(entry.getKey());
+            if (maxValue < thisValue) {
+                bestEffect = entry.getKey();
                 maxValue = thisValue;
             }
         }
 
-        return nextList.get(0);
+        return bestEffect;
     }
 
     @Override
-    public float getSimilarity(StochasticProcess<Condition, Consequence> other) {
-        return this.getCosineSimilarity(other);
-        //return this.getLikelihood(other);
-        //return this.getVectorCloseness(other);
-        //return this.getDeviationQuotient(other);
+    public Consequence sampleEffect(Condition cause, Random random) {
+        // concurrent readers may build tables, a table is only trusted while its row still has the same mass
+        AliasTable<Consequence> table = this.aliasTables.get(cause);
+        long mass = this.matrix.getMass(cause);
+        if (table == null || table.getMass() != mass) {
+            Map<Consequence, Integer> row = this.matrix.get(cause);
+            if (row == null || mass < 1) {
+                return null;
+            }
+            List<Consequence> effects = new ArrayList<>(row.keySet());
+            long[] frequencies = new long[effects.size()];
+            for (int i = 0; i < frequencies.length; i++) {
+                frequencies[i] = this.matrix.getCount(cause, effects.get(i));
+            }
+            table = new AliasTable<>(effects, frequencies);
+            this.aliasTables.put(cause, table);
+        }
+        return table.sample(random);
     }
 
-    public float getCosineSimilarity(StochasticProcess<Condition, Consequence> other) {
-        MatrixStochasticProcess<Condition, Consequence> castOther = (MatrixStochasticProcess<Condition, Consequence>) other;
-
-        Set<Condition> causes = new HashSet<>(this.matrix.keySet());
-        causes.addAll(castOther.matrix.keySet());
-
-        Set<Consequence> effects = new HashSet<>();
+    @Override
+    public float getSimilarity(StochasticProcess<Condition, Consequence> other) {
+        return this.getSimilarity(other, 0f);
+    }
 
-        for (Condition eachCause : causes) {
-            effects.addAll(this.matrix.getKeys(eachCause));
-            effects.addAll(castOther.matrix.getKeys(eachCause));
+    @Override
+    public float getSimilarity(StochasticProcess<Condition, Consequence> other, float bound) {
+        if (other instanceof OverlayStochasticProcess) {
+            other = ((OverlayStochasticProcess<Condition, Consequence>) other).getCurrent();
+        }
+        switch (this.measure) {
+            case LIKELIHOOD:
+                return this.getLikelihood(other, bound);
+            case CLOSENESS:
+                return this.getVectorCloseness(other);
+            case DEVIATION:
+                return this.getDeviationQuotient(other);
+            default:
+                return this.getCosineSimilarity(other);
         }
+    }
 
-        int dotProduct = 0;
-        int normB = 0, normA = 0;
-        int a, b;
-        for (Condition eachCause : causes) {
-            for (Consequence eachEffect : effects) {
-                a = this.getFrequency(eachCause, eachEffect);
-                b = castOther.getFrequency(eachCause, eachEffect);
-                normA += (int) Math.pow(a, 2);
-                normB += (int) Math.pow(b, 2);
-                dotProduct += a * b;
+    public float getCosineSimilarity(StochasticProcess<Condition, Consequence> other) {
+        long dotProduct, normA, normB;
+        normA = this.matrix.getSquareSum();
+
+        if (other instanceof MatrixStochasticProcess) {
+            MatrixStochasticProcess<Condition, Consequence> castOther = (MatrixStochasticProcess<Condition, Consequence>) other;
+            normB = castOther.matrix.getSquareSum();
+            if (this.isFrozen() && castOther.isFrozen() && ((FrozenMatrix<Condition, Consequence>) this.matrix).isCompatible((FrozenMatrix<Condition, Consequence>) castOther.matrix)) {
+                dotProduct = ((FrozenMatrix<Condition, Consequence>) this.matrix).getDotProduct((FrozenMatrix<Condition, Consequence>) castOther.matrix);
+            } else if (this.isDense() && castOther.isDense() && ((DenseMatrix<Condition, Consequence>) this.matrix).isCompatible((DenseMatrix<Condition, Consequence>) castOther.matrix)) {
+                dotProduct = ((DenseMatrix<Condition, Consequence>) this.matrix).getDotProduct((DenseMatrix<Condition, Consequence>) castOther.matrix);
+            } else {
+                // zero cells do not contribute, iterate stored cells only
+                dotProduct = this.getDotProduct(castOther);
+            }
+
+        } else {
+            long b;
+            dotProduct = 0L;
+            normB = 0L;
+            for (Condition eachCause : other.getAllCauses()) {
+                for (Consequence eachEffect : other.getEffects(eachCause)) {
+                    b = other.getFrequency(eachCause, eachEffect);
+                    normB += b * b;
+                    dotProduct += this.matrix.getCount(eachCause, eachEffect) * b;
+                }
             }
         }
+
         if (normA < 1 || normB < 1) {
             return 0f;
         }
-        double cosineSimilarity = dotProduct / Math.sqrt(normA * normB);
+        double cosineSimilarity = dotProduct / Math.sqrt((double) normA * normB);
         return (float) ((cosineSimilarity + 1) / 2f);
     }
 
+    private long getDotProduct(MatrixStochasticProcess<Condition, Consequence> other) {
+        // iterate over the smaller matrix, look up in the larger one
+        if (other.matrix.size() < this.matrix.size()) {
+            return other.getDotProduct(this);
+        }
+
+        long dotProduct = 0L;
+        Condition cause;
+        for (Map.Entry<Condition, Map<Consequence, Integer>> entry : this.matrix.entrySet()) {
+            cause = entry.getKey();
+            if (!other.matrix.containsKey(cause)) {
+                continue;
+            }
+            for (Consequence eachEffect : entry.getValue().keySet()) {
+                dotProduct += this.matrix.getCount(cause, eachEffect) * other.matrix.getCount(cause, eachEffect);
+            }
+        }
+        return dotProduct;
+    }
+
     public float getVectorCloseness(StochasticProcess<Condition, Consequence> other) {
         MatrixStochasticProcess<Condition, Consequence> cast = (MatrixStochasticProcess<Condition, Consequence>) other;
+        if (this.isDense() && cast.isDense() && ((DenseMatrix<Condition, Consequence>) this.matrix).isCompatible((DenseMatrix<Condition, Consequence>) cast.matrix)) {
+            return ((DenseMatrix<Condition, Consequence>) this.matrix).getVectorCloseness((DenseMatrix<Condition, Consequence>) cast.matrix);
+        }
 
         Set<Condition> causes = new HashSet<>(this.matrix.keySet());
         causes.addAll(cast.matrix.keySet());
@@ -222,60 +580,118 @@ public class MatrixStochasticProcess<Condition, Consequence> extends Identifiabl
     }
 
     public float getLikelihood(StochasticProcess<Condition, Consequence> other) {
-        MatrixStochasticProcess<Condition, Consequence> castOther = (MatrixStochasticProcess<Condition, Consequence>) other;
-        float similarity = 1f;
-
-        Condition otherCause;
-        Consequence otherEffect;
-        Map<Consequence, Integer> otherRow;
-        Map<Consequence, Integer> thisRow;
-        Integer thisFrequency, sum;
-
-        for (Map.Entry<Condition, Map<Consequence, Integer>> otherEntry : castOther.matrix.entrySet()) {
-            otherCause = otherEntry.getKey();
-            thisRow = this.matrix.get(otherCause);
-            if (thisRow == null) {
-                return 0f;
+        return this.getLikelihood(other, 0f);
+    }
+
+    /**
+     * Geometric mean of the probabilities this process assigns to the observations of other. Zero if an observation
+     * is impossible, as soon as the mean drops below bound the search stops and zero is returned.
+     */
+    public float getLikelihood(StochasticProcess<Condition, Consequence> other, float bound) {
+        long observations = 0L;
+        for (Condition otherCause : other.getAllCauses()) {
+            observations += other.getMass(otherCause);
+        }
+        if (observations < 1) {
+            return 1f;
+        }
+
+        // log probabilities only decrease the sum, stop once it cannot reach the bound anymore
+        double minLogLikelihood = bound > 0f ? observations * Math.log(bound) : Double.NEGATIVE_INFINITY;
+        double logLikelihood = 0d;
+        Map<Consequence, Double> thisRow;
+        Double logProbability;
+
+        if (other instanceof MatrixStochasticProcess) {
+            FrequencyMatrix<Condition, Consequence> otherMatrix = ((MatrixStochasticProcess<Condition, Consequence>) other).matrix;
+            for (Map.Entry<Condition, Map<Consequence, Integer>> otherEntry : otherMatrix.entrySet()) {
+                thisRow = this.getLogProbabilities(otherEntry.getKey());
+                for (Map.Entry<Consequence, Integer> otherCell : otherEntry.getValue().entrySet()) {
+                    logProbability = thisRow.get(otherCell.getKey());
+                    if (logProbability == null) {
+                        return 0f;
+                    }
+                    logLikelihood += logProbability * otherMatrix.getCount(otherEntry.getKey(), otherCell.getKey());
+                    if (logLikelihood < minLogLikelihood) {
+                        return 0f;
+                    }
+                }
             }
-            sum = this.getMass(otherCause);
-            otherRow = otherEntry.getValue();
-            for (Map.Entry<Consequence, Integer> otherSubEntry : otherRow.entrySet()) {
-                otherEffect = otherSubEntry.getKey();
-                thisFrequency = thisRow.get(otherEffect);
-                if (thisFrequency == null || thisFrequency < 1) {
-                    return 0f;
+
+        } else {
+            for (Condition otherCause : other.getAllCauses()) {
+                thisRow = this.getLogProbabilities(otherCause);
+                for (Consequence otherEffect : other.getEffects(otherCause)) {
+                    logProbability = thisRow.get(otherEffect);
+                    if (logProbability == null) {
+                        return 0f;
+                    }
+                    logLikelihood += logProbability * other.getFrequency(otherCause, otherEffect);
+                    if (logLikelihood < minLogLikelihood) {
+                        return 0f;
+                    }
                 }
-                similarity *= Math.pow((float) thisFrequency / sum, otherSubEntry.getValue());
             }
         }
 
-        return similarity;
+        return (float) Math.exp(logLikelihood / observations);
+    }
+
+    private Map<Consequence, Double> getLogProbabilities(Condition cause) {
+        Map<Consequence, Double> logRow = this.logProbabilities.get(cause);
+        if (logRow != null) {
+            return logRow;
+        }
+
+        Map<Consequence, Integer> row = this.matrix.get(cause);
+        if (row == null) {
+            return Collections.emptyMap();
+        }
+        logRow = new HashMap<>(row.size() * 4 / 3 + 1);
+        double logMass = Math.log(this.matrix.getMass(cause));
+        for (Consequence eachEffect : row.keySet()) {
+            logRow.put(eachEffect, Math.log(this.matrix.getCount(cause, eachEffect)) - logMass);
+        }
+        this.logProbabilities.put(cause, logRow);
+        return logRow;
     }
 
     @Override
     public void add(StochasticProcess<Condition, Consequence> other) {
-        MatrixStochasticProcess<Condition, Consequence> cast = (MatrixStochasticProcess<Condition, Consequence>) other;
-        NestedMapMatrix<Condition, Consequence, Integer> otherMatrix = (NestedMapMatrix<Condition, Consequence, Integer>) cast.matrix;
-
-        Condition otherCause;
-        Consequence otherEffect;
-        Map<Consequence, Integer> thisRow, otherRow;
-        Integer thisValue;
-
-        for (Map.Entry<Condition, Map<Consequence, Integer>> entry : otherMatrix.entrySet()) {
-            otherCause = entry.getKey();
-            otherRow = entry.getValue();
-            thisRow = this.matrix.getRow(otherCause);
-
-            for (Map.Entry<Consequence, Integer> subEntry : otherRow.entrySet()) {
-                otherEffect = subEntry.getKey();
-                thisValue = thisRow.get(otherEffect);
-                if (thisValue == null) {
-                    thisValue = 0;
+        if (other instanceof OverlayStochasticProcess) {
+            other = ((OverlayStochasticProcess<Condition, Consequence>) other).getCurrent();
+        }
+        this.version++;
+        MergeEvent event = new MergeEvent();
+        event.begin();
+        int cells = 0;
+        if (!(other instanceof MatrixStochasticProcess)) {
+            for (Condition otherCause : other.getAllCauses()) {
+                for (Consequence otherEffect : other.getEffects(otherCause)) {
+                    this.increment(this.getMutableMatrix(), otherCause, otherEffect, other.getFrequency(otherCause, otherEffect));
+                    cells++;
+                }
+            }
+        } else {
+            FrequencyMatrix<Condition, Consequence> otherMatrix = ((MatrixStochasticProcess<Condition, Consequence>) other).matrix;
+            Condition otherCause;
+
+            for (Map.Entry<Condition, Map<Consequence, Integer>> entry : otherMatrix.entrySet()) {
+                otherCause = entry.getKey();
+                for (Consequence otherEffect : entry.getValue().keySet()) {
+                    this.increment(this.getMutableMatrix(), otherCause, otherEffect, otherMatrix.getCount(otherCause, otherEffect));
+                    cells++;
                 }
-                thisRow.put(otherEffect, thisValue + subEntry.getValue());
             }
         }
+
+        this.account();
+
+        if (event.shouldCommit()) {
+            event.modelId = this.getId();
+            event.cells = cells;
+            event.commit();
+        }
     }
 
     @Override
@@ -286,4 +702,22 @@ public class MatrixStochasticProcess<Condition, Consequence> extends Identifiabl
         }
         return (float) this.getFrequency(cause, effect) / mass;
     }
+
+    private static class Column<A> {
+        private final Set<A> causes;
+        private final Owner owner;
+        private long mass;
+
+        private Column(Owner owner) {
+            this.causes = new HashSet<>();
+            this.owner = owner;
+            this.mass = 0L;
+        }
+
+        private Column(Column<A> other, Owner owner) {
+            this.causes = new HashSet<>(other.causes);
+            this.owner = owner;
+            this.mass = other.mass;
+        }
+    }
 }
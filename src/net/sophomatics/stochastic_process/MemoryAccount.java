@@ -0,0 +1,58 @@
+package net.sophomatics.stochastic_process;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running total of estimated heap bytes. Products report every change of their footprint to the account of their
+ * factory, accounts pass changes on to their parent, so a parent can sum up several factories or hierarchies.
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-22
+ */
+public class MemoryAccount {
+    private final LongAdder bytes;
+    private volatile MemoryAccount parent;
+
+    public MemoryAccount() {
+        this.bytes = new LongAdder();
+        this.parent = null;
+    }
+
+    public void add(long delta) {
+        if (delta == 0L) {
+            return;
+        }
+        this.bytes.add(delta);
+        MemoryAccount parent = this.parent;
+        if (parent != null) {
+            parent.add(delta);
+        }
+    }
+
+    public long getBytes() {
+        return this.bytes.sum();
+    }
+
+    /**
+     * Moves the bytes counted so far from the previous parent to the new one. Must not be called while bytes are
+     * added.
+     */
+    public void setParent(MemoryAccount parent) {
+        if (parent == this) {
+            throw new IllegalArgumentException("Accounts cannot be their own parent.");
+        }
+        long bytes = this.getBytes();
+        if (this.parent != null) {
+            this.parent.add(-bytes);
+        }
+        this.parent = parent;
+        if (parent != null) {
+            parent.add(bytes);
+        }
+    }
+
+    public MemoryAccount getParent() {
+        return this.parent;
+    }
+}
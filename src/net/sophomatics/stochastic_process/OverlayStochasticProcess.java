@@ -0,0 +1,188 @@
+package net.sophomatics.stochastic_process;
+
+import net.sophomatics.util.Identifiable;
+
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Tenant view of a process from a shared library. Reads go to the library process until the first write, from then on
+ * to own frequencies that copy only the library rows they write. The library process itself is never written.
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-22
+ */
+public class OverlayStochasticProcess<Condition, Consequence> extends Identifiable implements StochasticProcess<Condition, Consequence> {
+    private final StochasticProcess<Condition, Consequence> base;
+    private StochasticProcess<Condition, Consequence> own;
+    private MemoryAccount account;
+
+    public OverlayStochasticProcess(StochasticProcess<Condition, Consequence> base) {
+        this(base, null);
+    }
+
+    private OverlayStochasticProcess(StochasticProcess<Condition, Consequence> base, StochasticProcess<Condition, Consequence> own) {
+        super(base.getId());
+        this.base = base;
+        this.own = own;
+        this.account = null;
+    }
+
+    /**
+     * @return the process, or the library process as long as this overlay has not been written
+     */
+    StochasticProcess<Condition, Consequence> getCurrent() {
+        return this.own == null ? this.base : this.own;
+    }
+
+    /**
+     * @return own frequencies, null as long as this overlay has not been written
+     */
+    StochasticProcess<Condition, Consequence> getOwn() {
+        return this.own;
+    }
+
+    public boolean isDiverged() {
+        return this.own != null;
+    }
+
+    /**
+     * Own frequencies are accounted from the first write on, the library accounts for its processes itself.
+     */
+    public void setAccount(MemoryAccount account) {
+        this.account = account;
+        if (this.own instanceof MatrixStochasticProcess) {
+            ((MatrixStochasticProcess<Condition, Consequence>) this.own).setAccount(account);
+        }
+    }
+
+    private StochasticProcess<Condition, Consequence> getWritable() {
+        if (this.own == null) {
+            if (this.base instanceof MatrixStochasticProcess) {
+                this.own = ((MatrixStochasticProcess<Condition, Consequence>) this.base).overlay();
+                ((MatrixStochasticProcess<Condition, Consequence>) this.own).setAccount(this.account);
+            } else {
+                this.own = this.base.fork();
+            }
+        }
+        return this.own;
+    }
+
+    private static <Condition, Consequence> StochasticProcess<Condition, Consequence> unwrap(StochasticProcess<Condition, Consequence> process) {
+        if (process instanceof OverlayStochasticProcess) {
+            return ((OverlayStochasticProcess<Condition, Consequence>) process).getCurrent();
+        }
+        return process;
+    }
+
+    @Override
+    public int getFrequency(Condition cause, Consequence effect) {
+        return this.getCurrent().getFrequency(cause, effect);
+    }
+
+    @Override
+    public int getMaxFrequency(Condition cause) {
+        return this.getCurrent().getMaxFrequency(cause);
+    }
+
+    @Override
+    public int getMass(Condition cause) {
+        return this.getCurrent().getMass(cause);
+    }
+
+    @Override
+    public Set<Consequence> getAllEffects() {
+        return this.getCurrent().getAllEffects();
+    }
+
+    @Override
+    public Set<Condition> getAllCauses() {
+        return this.getCurrent().getAllCauses();
+    }
+
+    @Override
+    public Set<Consequence> getEffects(Condition cause) {
+        return this.getCurrent().getEffects(cause);
+    }
+
+    @Override
+    public float getProbability(Condition cause, Consequence effect) {
+        return this.getCurrent().getProbability(cause, effect);
+    }
+
+    @Override
+    public void store(Condition cause, Consequence effect) {
+        this.getWritable().store(cause, effect);
+    }
+
+    @Override
+    public void store(Condition cause, Consequence effect, int count) {
+        this.getWritable().store(cause, effect, count);
+    }
+
+    @Override
+    public Consequence getEffect(Condition cause) {
+        return this.getCurrent().getEffect(cause);
+    }
+
+    @Override
+    public Consequence sampleEffect(Condition cause, Random random) {
+        return this.getCurrent().sampleEffect(cause, random);
+    }
+
+    @Override
+    public float getSimilarity(StochasticProcess<Condition, Consequence> other) {
+        return this.getCurrent().getSimilarity(unwrap(other));
+    }
+
+    @Override
+    public float getSimilarity(StochasticProcess<Condition, Consequence> other, float bound) {
+        return this.getCurrent().getSimilarity(unwrap(other), bound);
+    }
+
+    @Override
+    public void add(StochasticProcess<Condition, Consequence> other) {
+        this.getWritable().add(unwrap(other));
+    }
+
+    @Override
+    public String print() {
+        return this.toString() + "\n" + this.getCurrent().print();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s%s", this.getClass().getSimpleName(), this.getId());
+    }
+
+    @Override
+    public int hashCode() {
+        return this.getCurrent().hashCode();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (other == this) {
+            return true;
+        } else if (!(other instanceof StochasticProcess)) {
+            return false;
+        }
+        return this.getCurrent().equals(unwrap((StochasticProcess<?, ?>) other));
+    }
+
+    @Override
+    public void clear() {
+        this.getWritable().clear();
+    }
+
+    @Override
+    public long getVersion() {
+        return this.getCurrent().getVersion();
+    }
+
+    @Override
+    public OverlayStochasticProcess<Condition, Consequence> fork() {
+        return new OverlayStochasticProcess<>(this.base, this.own == null ? null : this.own.fork());
+    }
+}
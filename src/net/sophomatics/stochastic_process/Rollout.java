@@ -0,0 +1,53 @@
+package net.sophomatics.stochastic_process;
+
+import net.sophomatics.util.Tuple;
+
+import java.util.*;
+
+/**
+ * Generates symbol sequences by sampling a Markov predictor over sensor motor pairs
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-15
+ */
+public class Rollout {
+    private Rollout() {
+    }
+
+    /**
+     * Walks model from s for at most length steps. In each state a motor is drawn uniformly from the motors the model
+     * has observed in that state, the walk stops early in states without any.
+     *
+     * @return generated sensors, not including s
+     */
+    public static <Sensor, Motor> List<Sensor> generate(StochasticProcess<Tuple<Sensor, Motor>, Sensor> model, Sensor s, int length, Random random) {
+        Map<Sensor, List<Tuple<Sensor, Motor>>> causes = new HashMap<>();
+        List<Tuple<Sensor, Motor>> stateCauses;
+        for (Tuple<Sensor, Motor> eachCause : model.getAllCauses()) {
+            stateCauses = causes.get(eachCause.a);
+            if (stateCauses == null) {
+                stateCauses = new ArrayList<>();
+                causes.put(eachCause.a, stateCauses);
+            }
+            stateCauses.add(eachCause);
+        }
+
+        List<Sensor> sequence = new ArrayList<>(length);
+        Sensor thisSensor = s;
+        Tuple<Sensor, Motor> cause;
+        for (int i = 0; i < length; i++) {
+            stateCauses = causes.get(thisSensor);
+            if (stateCauses == null) {
+                break;
+            }
+            cause = stateCauses.size() == 1 ? stateCauses.get(0) : stateCauses.get(random.nextInt(stateCauses.size()));
+            thisSensor = model.sampleEffect(cause, random);
+            if (thisSensor == null) {
+                break;
+            }
+            sequence.add(thisSensor);
+        }
+        return sequence;
+    }
+}
@@ -0,0 +1,15 @@
+package net.sophomatics.stochastic_process;
+
+/**
+ * Measures a Markov predictor can use to compare itself to another one
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-13
+ */
+public enum SimilarityMeasure {
+    COSINE,
+    LIKELIHOOD,
+    CLOSENESS,
+    DEVIATION
+}
@@ -1,5 +1,6 @@
 package net.sophomatics.stochastic_process;
 
+import java.util.Random;
 import java.util.Set;
 
 /**
@@ -20,14 +21,31 @@ public interface StochasticProcess<Condition, Consequence> {
 
     Set<Condition> getAllCauses();
 
+    Set<Consequence> getEffects(Condition cause);
+
     float getProbability(Condition cause, Consequence effect);
 
     void store(Condition cause, Consequence effect);
 
+    /**
+     * Stores count identical observations at once.
+     */
+    void store(Condition cause, Consequence effect, int count);
+
     Consequence getEffect(Condition cause);
 
+    /**
+     * @return effect drawn according to its probability given cause, null if cause has never been observed
+     */
+    Consequence sampleEffect(Condition cause, Random random);
+
     float getSimilarity(StochasticProcess<Condition, Consequence> other);
 
+    /**
+     * @param bound similarity to beat, the result may be any value below bound as soon as bound cannot be reached
+     */
+    float getSimilarity(StochasticProcess<Condition, Consequence> other, float bound);
+
     void add(StochasticProcess<Condition, Consequence> other);
 
     String print();
@@ -39,4 +57,14 @@ public interface StochasticProcess<Condition, Consequence> {
     void clear();
 
     int getId();
+
+    /**
+     * @return modification counter, changes whenever store, add or clear changed the frequencies
+     */
+    long getVersion();
+
+    /**
+     * @return process with the same id and frequencies that shares storage with this one until either is written
+     */
+    StochasticProcess<Condition, Consequence> fork();
 }
@@ -1,8 +1,10 @@
 package net.sophomatics.stochastic_process;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import net.sophomatics.events.ModelCreationEvent;
+import net.sophomatics.stochastic_process.matrix.OffHeapArena;
+import net.sophomatics.util.Interner;
+
+import java.util.*;
 
 /**
  * Implementation of a factory for Markov predictors
@@ -12,16 +14,164 @@ import java.util.List;
  * @since 2015-08-05
  */
 public class StochasticProcessFactory<Condition, Consequence> implements Iterable<StochasticProcess<Condition, Consequence>> {
+    public final static int DEFAULT_FREEZE_AGE = 1000;
     private final List<StochasticProcess<Condition, Consequence>> products;
+    private final Interner<Condition> causeIds;
+    private final Interner<Consequence> effectIds;
+    private final OffHeapArena arena;
+    private final MemoryAccount account;
+    private final int freezeAge;
+    private SimilarityMeasure measure;
+    private int steps;
+    private volatile boolean shared;
+    // last library taken from this factory and the products and versions it was taken at
+    private StochasticProcessFactory<Condition, Consequence> library;
+    private long libraryStamp;
 
     public StochasticProcessFactory() {
+        this(DEFAULT_FREEZE_AGE);
+    }
+
+    /**
+     * @param freezeAge number of steps without writes after which a product is frozen, 0 disables freezing
+     */
+    public StochasticProcessFactory(int freezeAge) {
+        this(freezeAge, false);
+    }
+
+    /**
+     * @param freezeAge number of steps without writes after which a product is frozen, 0 disables freezing
+     * @param offHeap   whether all products share one off-heap arena instead of individual heap matrices
+     */
+    public StochasticProcessFactory(int freezeAge, boolean offHeap) {
+        this.arena = offHeap ? new OffHeapArena() : null;
         this.products = new ArrayList<>();
+        this.account = new MemoryAccount();
+        this.causeIds = new Interner<>();
+        this.effectIds = new Interner<>();
+        this.freezeAge = freezeAge;
+        this.measure = SimilarityMeasure.COSINE;
+        this.steps = 0;
+        this.shared = false;
+        this.library = null;
+        this.libraryStamp = -1L;
+    }
+
+    private StochasticProcessFactory(StochasticProcessFactory<Condition, Consequence> original, boolean overlay) {
+        if (original.arena != null) {
+            throw new UnsupportedOperationException("Off-heap factories cannot be forked.");
+        }
+        this.arena = null;
+        this.account = new MemoryAccount();
+        this.products = new ArrayList<>(original.products.size());
+        StochasticProcess<Condition, Consequence> product;
+        for (StochasticProcess<Condition, Consequence> eachProduct : original.products) {
+            product = overlay ? new OverlayStochasticProcess<>(eachProduct) : eachProduct.fork();
+            this.account(product);
+            this.products.add(product);
+        }
+        this.causeIds = original.causeIds;
+        this.effectIds = original.effectIds;
+        this.freezeAge = original.freezeAge;
+        this.measure = original.measure;
+        this.steps = overlay ? 0 : original.steps;
+        this.shared = false;
+        this.library = null;
+        this.libraryStamp = -1L;
+    }
+
+    /**
+     * @return factory with forks of all products, same ids refer to forks of the same product
+     */
+    public StochasticProcessFactory<Condition, Consequence> fork() {
+        return new StochasticProcessFactory<>(this, false);
+    }
+
+    /**
+     * Takes a read-only library from the products as they are now. The library holds frozen forks of them, it is never
+     * evicted or written and creates no products, while this factory stays writable. The last library is reused as
+     * long as no product has been added or written since. Must not run concurrently with writes to this factory.
+     *
+     * @return library of the current products, this factory if it is a library itself
+     */
+    public synchronized StochasticProcessFactory<Condition, Consequence> library() {
+        if (this.shared) {
+            return this;
+        }
+        long stamp = this.products.size();
+        for (StochasticProcess<Condition, Consequence> eachProduct : this.products) {
+            stamp += eachProduct.getVersion();
+        }
+        if (this.library == null || this.libraryStamp != stamp) {
+            StochasticProcessFactory<Condition, Consequence> library = this.fork();
+            for (StochasticProcess<Condition, Consequence> eachProduct : library.products) {
+                if (eachProduct instanceof MatrixStochasticProcess) {
+                    ((MatrixStochasticProcess<Condition, Consequence>) eachProduct).freeze();
+                }
+            }
+            library.shared = true;
+            this.library = library;
+            this.libraryStamp = stamp;
+        }
+        return this.library;
+    }
+
+    /**
+     * Overlays the library of this factory, see library. A tenant should be given a library rather than the factory of
+     * an agent that keeps learning, taking the library here is not synchronized with that agent.
+     *
+     * @return factory whose products start as views of the library products, they copy only the library rows they
+     * write and create new products after the library's ids
+     */
+    public StochasticProcessFactory<Condition, Consequence> overlay() {
+        return new StochasticProcessFactory<>(this.library(), true);
+    }
+
+    private void account(StochasticProcess<Condition, Consequence> product) {
+        if (product instanceof MatrixStochasticProcess) {
+            ((MatrixStochasticProcess<Condition, Consequence>) product).setAccount(this.account);
+        } else if (product instanceof OverlayStochasticProcess) {
+            ((OverlayStochasticProcess<Condition, Consequence>) product).setAccount(this.account);
+        }
+    }
+
+    private static <Condition, Consequence> StochasticProcess<Condition, Consequence> getStorage(StochasticProcess<Condition, Consequence> product) {
+        if (product instanceof OverlayStochasticProcess) {
+            return ((OverlayStochasticProcess<Condition, Consequence>) product).getOwn();
+        }
+        return product;
     }
 
     public StochasticProcess<Condition, Consequence> newInstance() {
-        int newId = this.products.size();
-        StochasticProcess<Condition, Consequence> newProduct = new MatrixStochasticProcess<>(newId);
+        if (this.shared) {
+            throw new IllegalStateException("Libraries are read-only, create products in an overlay.");
+        }
+        StochasticProcess<Condition, Consequence> newProduct;
+        if (this.arena == null) {
+            MatrixStochasticProcess<Condition, Consequence> matrixProduct = new MatrixStochasticProcess<>(this.products.size(), this.causeIds, this.effectIds);
+            matrixProduct.setMeasure(this.measure);
+            matrixProduct.setAccount(this.account);
+            newProduct = matrixProduct;
+        } else {
+            newProduct = new ArenaStochasticProcess<>(this.products.size(), this.arena, this.causeIds, this.effectIds);
+        }
         this.products.add(newProduct);
+
+        ModelCreationEvent event = new ModelCreationEvent();
+        if (event.shouldCommit()) {
+            event.modelId = newProduct.getId();
+            event.offHeap = this.arena != null;
+            event.commit();
+        }
+        return newProduct;
+    }
+
+    /**
+     * @return a new product that starts with the frequencies of seed
+     */
+    public StochasticProcess<Condition, Consequence> newInstance(StochasticProcess<Condition, Consequence> seed) {
+        StochasticProcess<Condition, Consequence> newProduct = this.newInstance();
+        newProduct.add(seed);
         return newProduct;
     }
 
@@ -33,6 +183,119 @@ public class StochasticProcessFactory<Condition, Consequence> implements Iterabl
         return new ArrayList<>(this.products);
     }
 
+    /**
+     * Measure used by all current and future heap products, off-heap products always use cosine similarity and library
+     * products keep the library's measure until they are written
+     */
+    public void setMeasure(SimilarityMeasure measure) {
+        this.measure = measure;
+        StochasticProcess<Condition, Consequence> storage;
+        for (StochasticProcess<Condition, Consequence> eachProduct : this.products) {
+            storage = getStorage(eachProduct);
+            if (storage instanceof MatrixStochasticProcess) {
+                ((MatrixStochasticProcess<Condition, Consequence>) storage).setMeasure(measure);
+            }
+        }
+    }
+
+    public void tick() {
+        this.tick(1);
+    }
+
+    /**
+     * Advances the clock by several steps, idle products are frozen at most once.
+     */
+    public void tick(int steps) {
+        if (this.freezeAge < 1 || this.shared) {
+            return;
+        }
+        int before = this.steps / this.freezeAge;
+        this.steps += steps;
+        if (before < this.steps / this.freezeAge) {
+            this.freezeIdle();
+        }
+    }
+
+    private void freezeIdle() {
+        StochasticProcess<Condition, Consequence> storage;
+        for (StochasticProcess<Condition, Consequence> eachProduct : this.products) {
+            storage = getStorage(eachProduct);
+            if (storage instanceof MatrixStochasticProcess) {
+                ((MatrixStochasticProcess<Condition, Consequence>) storage).freezeIfIdle();
+            }
+        }
+    }
+
+    /**
+     * Heap products report their footprint to this account, off-heap products and unwritten library products are not
+     * accounted.
+     */
+    public MemoryAccount getAccount() {
+        return this.account;
+    }
+
+    /**
+     * @return estimated heap bytes of all products, kept up to date on every write
+     */
+    public long getEstimatedBytes() {
+        return this.account.getBytes();
+    }
+
+    /**
+     * Freezes all heap products except the ones to keep.
+     *
+     * @return estimated bytes freed
+     */
+    public long freezeAll(Set<Integer> keep) {
+        long before = this.account.getBytes();
+        StochasticProcess<Condition, Consequence> storage;
+        for (StochasticProcess<Condition, Consequence> eachProduct : this.products) {
+            storage = getStorage(eachProduct);
+            if (storage instanceof MatrixStochasticProcess && !keep.contains(eachProduct.getId())) {
+                ((MatrixStochasticProcess<Condition, Consequence>) storage).freeze();
+            }
+        }
+        return before - this.account.getBytes();
+    }
+
+    /**
+     * Clears heap products, the ones that have been idle for the most freeze rounds and then the oldest ones first,
+     * until enough bytes are freed. Cleared products keep their ids and new products never get them, so the counts that
+     * other levels hold for an id always refer to the same product. A library clears nothing.
+     *
+     * @param bytes estimated bytes to free
+     * @param keep  ids of products that must not be cleared
+     * @return estimated bytes freed
+     */
+    public long evictIdle(long bytes, Set<Integer> keep) {
+        if (this.shared) {
+            return 0L;
+        }
+        List<MatrixStochasticProcess<Condition, Consequence>> idle = new ArrayList<>();
+        StochasticProcess<Condition, Consequence> storage;
+        for (StochasticProcess<Condition, Consequence> eachProduct : this.products) {
+            storage = getStorage(eachProduct);
+            if (storage instanceof MatrixStochasticProcess && !keep.contains(eachProduct.getId()) && !storage.getAllCauses().isEmpty()) {
+                idle.add((MatrixStochasticProcess<Condition, Consequence>) storage);
+            }
+        }
+        Collections.sort(idle, new Comparator<MatrixStochasticProcess<Condition, Consequence>>() {
+            @Override
+            public int compare(MatrixStochasticProcess<Condition, Consequence> p0, MatrixStochasticProcess<Condition, Consequence> p1) {
+                return Integer.compare(p1.getIdleRounds(), p0.getIdleRounds());
+            }
+        });
+
+        long before = this.account.getBytes();
+        for (MatrixStochasticProcess<Condition, Consequence> eachProduct : idle) {
+            if (bytes <= before - this.account.getBytes()) {
+                break;
+            }
+            eachProduct.clear();
+        }
+        return before - this.account.getBytes();
+    }
+
     @Override
     public Iterator<StochasticProcess<Condition, Consequence>> iterator() {
         return this.products.iterator();
@@ -1,6 +1,6 @@
 package net.sophomatics.stochastic_process;
 
-import net.sophomatics.util.Timer;
+import net.sophomatics.util.ProgressReporter;
 
 import java.util.Random;
 import java.util.logging.Logger;
@@ -19,10 +19,10 @@ public class StochasticProcessTest {
 
     private static char[] getRandomArray(int size) {
         char[] randomArray = new char[size];
-        Timer t = new Timer(size, "Generating random characters.");
+        ProgressReporter t = new ProgressReporter(size, "Generating random characters.");
         for (int i = 0; i < size; i++) {
             randomArray[i] = (char) (r.nextInt(26) + 97);
-            t.tick("");
+            t.tick();
         }
         t.finished();
         return randomArray;
@@ -64,5 +64,19 @@ public class StochasticProcessTest {
         System.out.println(mp0.getVectorCloseness(mp1));
         System.out.println(mp1.getVectorCloseness(mp0));
         System.out.println();
+
+        float liquidSimilarity = mp0.getCosineSimilarity(mp1);
+        mp0.freeze();
+        mp1.freeze();
+        System.out.println(mp0.print());
+        System.out.println(liquidSimilarity);
+        System.out.println(mp0.getCosineSimilarity(mp1));
+        System.out.println();
+
+        mp0.store(randomArray0[0], randomArray0[1]);
+        System.out.println(mp0.isFrozen());
+        System.out.println(mp0.getFrequency(randomArray0[0], randomArray0[1]));
+        System.out.println(mp1.getFrequency(randomArray0[0], randomArray0[1]));
+        System.out.println();
     }
 }
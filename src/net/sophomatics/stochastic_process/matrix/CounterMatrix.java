@@ -0,0 +1,129 @@
+package net.sophomatics.stochastic_process.matrix;
+
+import java.util.Map;
+
+/**
+ * Nested map matrix of frequencies whose rows are adaptive width counter rows. Forks share rows, a shared row is copied
+ * before it is written.
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-07
+ */
+public class CounterMatrix<A, B> extends NestedMapMatrix<A, B, Integer> implements FrequencyMatrix<A, B> {
+    private final static long serialVersionUID = 1L;
+    private Owner owner;
+    // rows and their cells that this matrix still shares with the matrix it was forked from
+    private int sharedRows;
+    private long sharedCells;
+
+    public CounterMatrix(int maxSize) {
+        super(maxSize);
+        this.owner = new Owner();
+        this.sharedRows = 0;
+        this.sharedCells = 0L;
+    }
+
+    public CounterMatrix() {
+        this(0);
+    }
+
+    @Override
+    protected Map<B, Integer> newRow(int maxSize) {
+        CounterRow<B> row = maxSize < 1 ? new CounterRow<B>() : new CounterRow<B>(maxSize);
+        row.owner = this.owner;
+        return row;
+    }
+
+    @Override
+    public Map<B, Integer> getRow(A key) {
+        CounterRow<B> row = this.findCounterRow(key);
+        if (row == null) {
+            return super.getRow(key);
+        }
+        if (row.owner != this.owner) {
+            if (!this.owner.isSameOrigin(row.owner)) {
+                this.sharedRows--;
+                this.sharedCells -= row.size();
+            }
+            row = new CounterRow<>(row);
+            row.owner = this.owner;
+            this.put(key, row);
+        }
+        return row;
+    }
+
+    /**
+     * @return number of rows from the matrix this one was forked from that it has not copied yet
+     */
+    public int getSharedRows() {
+        return this.sharedRows;
+    }
+
+    /**
+     * @return number of cells in these rows
+     */
+    public long getSharedCells() {
+        return this.sharedCells;
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        this.sharedRows = 0;
+        this.sharedCells = 0L;
+    }
+
+    @Override
+    public CounterMatrix<A, B> fork() {
+        CounterMatrix<A, B> fork = new CounterMatrix<>();
+        fork.putAll(this);
+        fork.sharedRows = this.size();
+        for (Map<B, Integer> eachRow : this.values()) {
+            fork.sharedCells += eachRow.size();
+        }
+        // rows written so far are shared from now on
+        this.owner = this.owner.renew();
+        return fork;
+    }
+
+    public CounterRow<B> getCounterRow(A key) {
+        return (CounterRow<B>) this.getRow(key);
+    }
+
+    public CounterRow<B> findCounterRow(Object key) {
+        return (CounterRow<B>) this.get(key);
+    }
+
+    @Override
+    public long getCount(Object k0, Object k1) {
+        CounterRow<B> row = this.findCounterRow(k0);
+        return row == null ? 0L : row.getCount(k1);
+    }
+
+    @Override
+    public long getMass(Object k0) {
+        CounterRow<B> row = this.findCounterRow(k0);
+        return row == null ? 0L : row.getMass();
+    }
+
+    @Override
+    public long getMaxCount(Object k0) {
+        CounterRow<B> row = this.findCounterRow(k0);
+        return row == null ? 0L : row.getMaxCount();
+    }
+
+    @Override
+    public long getSquareSum() {
+        long sum = 0L;
+        for (Map<B, Integer> row : this.values()) {
+            sum += ((CounterRow<B>) row).getSquareSum();
+        }
+        return sum;
+    }
+
+    @Override
+    public long increment(A k0, B k1, long delta) {
+        return this.getCounterRow(k0).increment(k1, delta);
+    }
+}
@@ -0,0 +1,371 @@
+package net.sophomatics.stochastic_process.matrix;
+
+import java.util.*;
+
+/**
+ * Open addressing row of frequencies. Counts start at byte width and the whole row is promoted to short, int and long
+ * width as soon as one count does not fit anymore. Map access saturates at Integer.MAX_VALUE.
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-07
+ */
+public class CounterRow<B> extends AbstractMap<B, Integer> {
+    private final static int INITIAL_CAPACITY = 4;
+    private Object[] keys;
+    private byte[] bytes;
+    private short[] shorts;
+    private int[] ints;
+    private long[] longs;
+    private int size;
+    private long mass;
+    private long maxCount;
+    private long squareSum;
+    Owner owner;
+
+    public CounterRow() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public CounterRow(int expectedSize) {
+        int capacity = INITIAL_CAPACITY;
+        while (capacity * 3 < expectedSize * 4) {
+            capacity <<= 1;
+        }
+        this.keys = new Object[capacity];
+        this.bytes = new byte[capacity];
+        this.size = 0;
+        this.mass = 0L;
+        this.maxCount = 0L;
+        this.squareSum = 0L;
+    }
+
+    /**
+     * @param other row to copy, keeps its width
+     */
+    public CounterRow(CounterRow<B> other) {
+        this.keys = other.keys.clone();
+        this.bytes = other.bytes == null ? null : other.bytes.clone();
+        this.shorts = other.shorts == null ? null : other.shorts.clone();
+        this.ints = other.ints == null ? null : other.ints.clone();
+        this.longs = other.longs == null ? null : other.longs.clone();
+        this.size = other.size;
+        this.mass = other.mass;
+        this.maxCount = other.maxCount;
+        this.squareSum = other.squareSum;
+    }
+
+    public static int saturate(long value) {
+        return value > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) value;
+    }
+
+    private static int spread(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private int find(Object key) {
+        if (key == null) {
+            return -1;
+        }
+        int mask = this.keys.length - 1;
+        for (int i = spread(key) & mask; this.keys[i] != null; i = (i + 1) & mask) {
+            if (this.keys[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private long read(int i) {
+        if (this.bytes != null) {
+            return this.bytes[i] & 0xFFL;
+        } else if (this.shorts != null) {
+            return this.shorts[i] & 0xFFFFL;
+        } else if (this.ints != null) {
+            return this.ints[i] & 0xFFFFFFFFL;
+        }
+        return this.longs[i];
+    }
+
+    private void write(int i, long value) {
+        if (this.bytes != null) {
+            if (value <= 0xFFL) {
+                this.bytes[i] = (byte) value;
+                return;
+            }
+            this.promote(value);
+        } else if (this.shorts != null) {
+            if (value <= 0xFFFFL) {
+                this.shorts[i] = (short) value;
+                return;
+            }
+            this.promote(value);
+        } else if (this.ints != null) {
+            if (value <= 0xFFFFFFFFL) {
+                this.ints[i] = (int) value;
+                return;
+            }
+            this.promote(value);
+        }
+        if (this.longs != null) {
+            this.longs[i] = value;
+        } else {
+            this.write(i, value);
+        }
+    }
+
+    private void promote(long value) {
+        int capacity = this.keys.length;
+        long[] values = new long[capacity];
+        for (int i = 0; i < capacity; i++) {
+            values[i] = this.read(i);
+        }
+        this.bytes = null;
+        this.shorts = null;
+        this.ints = null;
+        this.longs = null;
+
+        if (value <= 0xFFFFL) {
+            this.shorts = new short[capacity];
+        } else if (value <= 0xFFFFFFFFL) {
+            this.ints = new int[capacity];
+        } else {
+            this.longs = new long[capacity];
+        }
+        for (int i = 0; i < capacity; i++) {
+            this.write(i, values[i]);
+        }
+    }
+
+    private void resize(int capacity) {
+        Object[] oldKeys = this.keys;
+        long[] oldValues = new long[oldKeys.length];
+        for (int i = 0; i < oldKeys.length; i++) {
+            oldValues[i] = this.read(i);
+        }
+
+        this.keys = new Object[capacity];
+        this.allocate(capacity);
+        int mask = capacity - 1;
+        int j;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == null) {
+                continue;
+            }
+            for (j = spread(oldKeys[i]) & mask; this.keys[j] != null; j = (j + 1) & mask) ;
+            this.keys[j] = oldKeys[i];
+            this.write(j, oldValues[i]);
+        }
+    }
+
+    private void allocate(int capacity) {
+        // keep the current width
+        if (this.bytes != null) {
+            this.bytes = new byte[capacity];
+        } else if (this.shorts != null) {
+            this.shorts = new short[capacity];
+        } else if (this.ints != null) {
+            this.ints = new int[capacity];
+        } else {
+            this.longs = new long[capacity];
+        }
+    }
+
+    private int insert(B key) {
+        if (this.keys.length * 3 <= (this.size + 1) * 4) {
+            this.resize(this.keys.length << 1);
+        }
+        int mask = this.keys.length - 1;
+        int i;
+        for (i = spread(key) & mask; this.keys[i] != null; i = (i + 1) & mask) ;
+        this.keys[i] = key;
+        this.write(i, 0L);
+        this.size++;
+        return i;
+    }
+
+    private void delete(int i) {
+        // backward shift deletion keeps probe sequences intact
+        int mask = this.keys.length - 1;
+        int j = i, home;
+        while (true) {
+            j = (j + 1) & mask;
+            if (this.keys[j] == null) {
+                break;
+            }
+            home = spread(this.keys[j]) & mask;
+            if ((j > i && (home <= i || home > j)) || (j < i && (home <= i && home > j))) {
+                this.keys[i] = this.keys[j];
+                this.write(i, this.read(j));
+                i = j;
+            }
+        }
+        this.keys[i] = null;
+        this.write(i, 0L);
+        this.size--;
+    }
+
+    private void updateMaxCount() {
+        long max = 0L;
+        for (int i = 0; i < this.keys.length; i++) {
+            if (this.keys[i] != null && max < this.read(i)) {
+                max = this.read(i);
+            }
+        }
+        this.maxCount = max;
+    }
+
+    public long getCount(Object key) {
+        int i = this.find(key);
+        return i < 0 ? 0L : this.read(i);
+    }
+
+    public long increment(B key, long delta) {
+        int i = this.find(key);
+        if (i < 0) {
+            i = this.insert(key);
+        }
+        long oldValue = this.read(i);
+        long value = oldValue + delta;
+        this.write(i, value);
+        this.mass += delta;
+        this.squareSum += value * value - oldValue * oldValue;
+        if (this.maxCount < value) {
+            this.maxCount = value;
+        }
+        return value;
+    }
+
+    public long getMass() {
+        return this.mass;
+    }
+
+    public long getMaxCount() {
+        return this.maxCount;
+    }
+
+    public long getSquareSum() {
+        return this.squareSum;
+    }
+
+    public int getWidth() {
+        if (this.bytes != null) {
+            return 1;
+        } else if (this.shorts != null) {
+            return 2;
+        } else if (this.ints != null) {
+            return 4;
+        }
+        return 8;
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return this.find(key) >= 0;
+    }
+
+    @Override
+    public Integer get(Object key) {
+        int i = this.find(key);
+        return i < 0 ? null : saturate(this.read(i));
+    }
+
+    @Override
+    public Integer put(B key, Integer value) {
+        if (key == null || value == null || value < 0) {
+            throw new IllegalArgumentException("Rows only hold non-negative counts for non-null keys.");
+        }
+        int i = this.find(key);
+        Integer previous = null;
+        if (i < 0) {
+            i = this.insert(key);
+        } else {
+            previous = saturate(this.read(i));
+        }
+        long oldValue = this.read(i);
+        this.write(i, value);
+        this.mass += value - oldValue;
+        this.squareSum += (long) value * value - oldValue * oldValue;
+        if (this.maxCount < value) {
+            this.maxCount = value;
+        } else if (oldValue == this.maxCount) {
+            this.updateMaxCount();
+        }
+        return previous;
+    }
+
+    @Override
+    public Integer remove(Object key) {
+        int i = this.find(key);
+        if (i < 0) {
+            return null;
+        }
+        long oldValue = this.read(i);
+        this.delete(i);
+        this.mass -= oldValue;
+        this.squareSum -= oldValue * oldValue;
+        if (oldValue == this.maxCount) {
+            this.updateMaxCount();
+        }
+        return saturate(oldValue);
+    }
+
+    @Override
+    public void clear() {
+        this.keys = new Object[INITIAL_CAPACITY];
+        this.bytes = new byte[INITIAL_CAPACITY];
+        this.shorts = null;
+        this.ints = null;
+        this.longs = null;
+        this.size = 0;
+        this.mass = 0L;
+        this.maxCount = 0L;
+        this.squareSum = 0L;
+    }
+
+    @Override
+    public Set<Entry<B, Integer>> entrySet() {
+        return new AbstractSet<Entry<B, Integer>>() {
+            @Override
+            public Iterator<Entry<B, Integer>> iterator() {
+                return new Iterator<Entry<B, Integer>>() {
+                    private int next = this.seek(0);
+
+                    private int seek(int i) {
+                        while (i < CounterRow.this.keys.length && CounterRow.this.keys[i] == null) {
+                            i++;
+                        }
+                        return i;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return this.next < CounterRow.this.keys.length;
+                    }
+
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public Entry<B, Integer> next() {
+                        if (!this.hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        int i = this.next;
+                        this.next = this.seek(i + 1);
+                        return new SimpleImmutableEntry<>((B) CounterRow.this.keys[i], saturate(CounterRow.this.read(i)));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return CounterRow.this.size;
+            }
+        };
+    }
+}
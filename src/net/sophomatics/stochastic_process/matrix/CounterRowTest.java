@@ -0,0 +1,125 @@
+package net.sophomatics.stochastic_process.matrix;
+
+import net.sophomatics.stochastic_process.MatrixStochasticProcess;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Checks width promotion of counter rows and counts beyond the int range.
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-07
+ */
+public class CounterRowTest {
+    private final static Logger logger = Logger.getLogger(CounterRowTest.class.getSimpleName());
+    private static int errors = 0;
+
+    private static void report(String what, long value, long expected) {
+        if (value != expected) {
+            logger.log(Level.SEVERE, String.format("%s is %s, expected %s", what, value, expected));
+            errors++;
+        }
+    }
+
+    private static void check(String step, CounterRow<Integer> row, Map<Integer, Long> expected, int width) {
+        long mass = 0L, max = 0L, squareSum = 0L;
+        for (Map.Entry<Integer, Long> entry : expected.entrySet()) {
+            report(step + ": count of " + entry.getKey(), row.getCount(entry.getKey()), entry.getValue());
+            report(step + ": saturated count of " + entry.getKey(), row.get(entry.getKey()), Math.min(entry.getValue(), Integer.MAX_VALUE));
+            mass += entry.getValue();
+            max = Math.max(max, entry.getValue());
+            squareSum += entry.getValue() * entry.getValue();
+        }
+        report(step + ": size", row.size(), expected.size());
+        report(step + ": mass", row.getMass(), mass);
+        report(step + ": max count", row.getMaxCount(), max);
+        report(step + ": square sum", row.getSquareSum(), squareSum);
+        report(step + ": width", row.getWidth(), width);
+    }
+
+    private static void increment(CounterRow<Integer> row, Map<Integer, Long> expected, int key, long delta) {
+        row.increment(key, delta);
+        Long count = expected.get(key);
+        expected.put(key, count == null ? delta : count + delta);
+    }
+
+    private static void checkPromotion() {
+        CounterRow<Integer> row = new CounterRow<>();
+        Map<Integer, Long> expected = new HashMap<>();
+        for (int key = 0; key < 20; key++) {
+            increment(row, expected, key, 1 + key);
+        }
+        check("bytes", row, expected, 1);
+
+        increment(row, expected, 3, 0xFFL - expected.get(3));
+        check("byte limit", row, expected, 1);
+        increment(row, expected, 3, 1L);
+        check("shorts", row, expected, 2);
+        increment(row, expected, 5, 0x10000L);
+        check("ints", row, expected, 4);
+        increment(row, expected, 7, 0xFFFFFFFFL);
+        check("longs", row, expected, 8);
+
+        // resizing and deleting keep the width
+        for (int key = 20; key < 200; key++) {
+            increment(row, expected, key, key);
+        }
+        for (int key = 0; key < 200; key += 3) {
+            row.remove(key);
+            expected.remove(key);
+        }
+        check("longs after resize and remove", row, expected, 8);
+
+        CounterRow<Integer> copy = new CounterRow<>(row);
+        check("copy", copy, expected, 8);
+        row.clear();
+        check("clear", row, new HashMap<Integer, Long>(), 1);
+    }
+
+    private static void checkOverflow() {
+        // counts beyond the int range must saturate instead of wrapping
+        MatrixStochasticProcess<Character, Character> process = new MatrixStochasticProcess<>(0);
+        MatrixStochasticProcess<Character, Character> other = new MatrixStochasticProcess<>(1);
+        for (int i = 0; i < 3; i++) {
+            process.store('a', 'b', Integer.MAX_VALUE);
+            other.store('a', 'b', Integer.MAX_VALUE);
+        }
+        process.store('a', 'c', 1);
+        other.store('a', 'c', 1);
+        report("frequency", process.getFrequency('a', 'b'), Integer.MAX_VALUE);
+        report("mass", process.getMass('a'), Integer.MAX_VALUE);
+        report("max frequency", process.getMaxFrequency('a'), Integer.MAX_VALUE);
+
+        // the frozen layout holds ints only
+        process.freeze();
+        report("frozen", process.isFrozen() ? 1 : 0, 0);
+
+        float similarity = process.getCosineSimilarity(other);
+        if (similarity < .99f || 1.01f < similarity) {
+            logger.log(Level.SEVERE, String.format("Cosine similarity of equal processes is %s", similarity));
+            errors++;
+        }
+
+        // many small stores in a small alphabet switch to dense storage, which must fall back before overflowing
+        MatrixStochasticProcess<Character, Character> dense = new MatrixStochasticProcess<>(2);
+        for (int i = 0; i < 256; i++) {
+            dense.store((char) ('a' + i % 4), (char) ('a' + i / 4 % 4));
+        }
+        report("dense", dense.isDense() ? 1 : 0, 1);
+        dense.store('a', 'a', Integer.MAX_VALUE);
+        dense.store('a', 'a', Integer.MAX_VALUE);
+        report("dense after overflow", dense.isDense() ? 1 : 0, 0);
+        report("frequency after overflow", dense.getFrequency('a', 'a'), Integer.MAX_VALUE);
+        report("frequency next to overflow", dense.getFrequency('b', 'a'), 16);
+    }
+
+    public static void main(String[] args) {
+        checkPromotion();
+        checkOverflow();
+        logger.info(String.format("Finished with %s errors.", errors));
+    }
+}
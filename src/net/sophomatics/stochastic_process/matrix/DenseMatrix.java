@@ -0,0 +1,502 @@
+package net.sophomatics.stochastic_process.matrix;
+
+import net.sophomatics.util.Interner;
+
+import java.util.*;
+
+/**
+ * Frequency matrix over small interned domains, stored as one flat row major int array
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-09
+ */
+public class DenseMatrix<A, B> extends AbstractMap<A, Map<B, Integer>> implements FrequencyMatrix<A, B> {
+    private final static SimilarityKernel KERNEL = getKernel(System.getProperty("net.sophomatics.kernel", "scalar"));
+    private final Interner<A> rowIds;
+    private final Interner<B> columnIds;
+    private int rows, columns;
+    private int[] counts;
+    private long[] rowMass;
+    private int[] rowMax;
+    private int[] rowCells;
+    private int nonEmptyRows;
+    private int cells;
+    private long squareSum;
+
+    public DenseMatrix(Interner<A> rowIds, Interner<B> columnIds) {
+        this.rowIds = rowIds;
+        this.columnIds = columnIds;
+        this.allocate(rowIds.size(), columnIds.size());
+    }
+
+    public static SimilarityKernel getKernel(String name) {
+        if (name.equals("scalar")) {
+            return new ScalarSimilarityKernel();
+        } else if (name.equals("unrolled")) {
+            return new UnrolledSimilarityKernel();
+        }
+        throw new IllegalArgumentException("Unknown similarity kernel " + name);
+    }
+
+    /**
+     * @return the dense matrix or null if a frequency exceeds the int range of the dense layout
+     */
+    public static <A, B> DenseMatrix<A, B> of(FrequencyMatrix<A, B> matrix, Interner<A> rowIds, Interner<B> columnIds) {
+        DenseMatrix<A, B> dense = new DenseMatrix<>(rowIds, columnIds);
+        A eachRow;
+        for (Map.Entry<A, Map<B, Integer>> entry : matrix.entrySet()) {
+            eachRow = entry.getKey();
+            if (Integer.MAX_VALUE < matrix.getMaxCount(eachRow)) {
+                return null;
+            }
+            for (B eachColumn : entry.getValue().keySet()) {
+                dense.increment(eachRow, eachColumn, matrix.getCount(eachRow, eachColumn));
+            }
+        }
+        return dense;
+    }
+
+    public CounterMatrix<A, B> toSparse() {
+        CounterMatrix<A, B> matrix = new CounterMatrix<>();
+        CounterRow<B> row;
+        int offset;
+        for (int r = 0; r < this.rows; r++) {
+            if (this.rowCells[r] < 1) {
+                continue;
+            }
+            row = matrix.getCounterRow(this.rowIds.get(r));
+            offset = r * this.columns;
+            for (int c = 0; c < this.columns; c++) {
+                if (this.counts[offset + c] > 0) {
+                    row.increment(this.columnIds.get(c), this.counts[offset + c]);
+                }
+            }
+        }
+        return matrix;
+    }
+
+    @Override
+    public DenseMatrix<A, B> fork() {
+        // dense matrices are small, copy right away
+        DenseMatrix<A, B> fork = new DenseMatrix<>(this.rowIds, this.columnIds);
+        fork.rows = this.rows;
+        fork.columns = this.columns;
+        fork.counts = this.counts.clone();
+        fork.rowMass = this.rowMass.clone();
+        fork.rowMax = this.rowMax.clone();
+        fork.rowCells = this.rowCells.clone();
+        fork.nonEmptyRows = this.nonEmptyRows;
+        fork.cells = this.cells;
+        fork.squareSum = this.squareSum;
+        return fork;
+    }
+
+    private void allocate(int rows, int columns) {
+        this.rows = rows;
+        this.columns = columns;
+        this.counts = new int[rows * columns];
+        this.rowMass = new long[rows];
+        this.rowMax = new int[rows];
+        this.rowCells = new int[rows];
+        this.nonEmptyRows = 0;
+        this.cells = 0;
+        this.squareSum = 0L;
+    }
+
+    private void ensure(int row, int column) {
+        if (row < this.rows && column < this.columns) {
+            return;
+        }
+        int newRows = Math.max(row + 1, Math.max(this.rows, this.rowIds.size()));
+        int newColumns = Math.max(column + 1, Math.max(this.columns, this.columnIds.size()));
+        int[] newCounts = new int[newRows * newColumns];
+        for (int r = 0; r < this.rows; r++) {
+            System.arraycopy(this.counts, r * this.columns, newCounts, r * newColumns, this.columns);
+        }
+        this.counts = newCounts;
+        this.rowMass = Arrays.copyOf(this.rowMass, newRows);
+        this.rowMax = Arrays.copyOf(this.rowMax, newRows);
+        this.rowCells = Arrays.copyOf(this.rowCells, newRows);
+        this.rows = newRows;
+        this.columns = newColumns;
+    }
+
+    private int findRow(Object k) {
+        int r = this.rowIds.findId(k);
+        return r < this.rows ? r : -1;
+    }
+
+    private int findCell(int r, Object k) {
+        int c = this.columnIds.findId(k);
+        if (c < 0 || c >= this.columns) {
+            return -1;
+        }
+        return r * this.columns + c;
+    }
+
+    private void set(int r, int i, int value) {
+        int oldValue = this.counts[i];
+        if (oldValue == value) {
+            return;
+        }
+        this.counts[i] = value;
+        if (oldValue == 0) {
+            if (this.rowCells[r]++ == 0) {
+                this.nonEmptyRows++;
+            }
+            this.cells++;
+        } else if (value == 0) {
+            if (--this.rowCells[r] == 0) {
+                this.nonEmptyRows--;
+            }
+            this.cells--;
+        }
+        this.rowMass[r] += value - oldValue;
+        this.squareSum += (long) value * value - (long) oldValue * oldValue;
+        if (this.rowMax[r] < value) {
+            this.rowMax[r] = value;
+        } else if (oldValue == this.rowMax[r]) {
+            int max = 0;
+            for (int j = r * this.columns; j < (r + 1) * this.columns; j++) {
+                if (max < this.counts[j]) {
+                    max = this.counts[j];
+                }
+            }
+            this.rowMax[r] = max;
+        }
+    }
+
+    public boolean canHold(Object k0, Object k1, long delta) {
+        return this.getCount(k0, k1) + delta <= Integer.MAX_VALUE;
+    }
+
+    public boolean isCompatible(DenseMatrix<A, B> other) {
+        return this.rowIds == other.rowIds && this.columnIds == other.columnIds;
+    }
+
+    public int getCellCount() {
+        return this.cells;
+    }
+
+    /**
+     * @return bytes held by the arrays, which cover the whole area and not only the non-zero cells
+     */
+    public long getEstimatedBytes() {
+        return 4L * this.counts.length + 16L * this.rowMass.length;
+    }
+
+    public double getFillRatio() {
+        long area = (long) this.rowIds.size() * this.columnIds.size();
+        return area < 1 ? 0d : (double) this.cells / area;
+    }
+
+    public long getDotProduct(DenseMatrix<A, B> other) {
+        return this.getDotProduct(other, KERNEL);
+    }
+
+    long getDotProduct(DenseMatrix<A, B> other, SimilarityKernel kernel) {
+        int rows = Math.min(this.rows, other.rows);
+        if (this.columns == other.columns) {
+            return kernel.getDotProduct(this.counts, 0, other.counts, 0, rows * this.columns);
+        }
+        long dotProduct = 0L;
+        int columns = Math.min(this.columns, other.columns);
+        for (int r = 0; r < rows; r++) {
+            dotProduct += kernel.getDotProduct(this.counts, r * this.columns, other.counts, r * other.columns, columns);
+        }
+        return dotProduct;
+    }
+
+    /**
+     * Mean squared difference of transition probabilities over all causes and effects of both matrices. Causes
+     * without mass have probability one for every effect.
+     */
+    public float getVectorCloseness(DenseMatrix<A, B> other) {
+        return this.getVectorCloseness(other, KERNEL);
+    }
+
+    float getVectorCloseness(DenseMatrix<A, B> other, SimilarityKernel kernel) {
+        int rows = Math.max(this.rows, other.rows);
+        int columns = Math.min(this.columns, other.columns);
+
+        // determine effects present in either matrix
+        boolean[] present = new boolean[Math.max(this.columns, other.columns)];
+        int effects = 0, causes = 0;
+        for (DenseMatrix<A, B> m : Arrays.asList(this, other)) {
+            for (int r = 0; r < m.rows; r++) {
+                if (m.rowCells[r] < 1) {
+                    continue;
+                }
+                for (int c = 0, i = r * m.columns; c < m.columns; c++, i++) {
+                    if (m.counts[i] != 0 && !present[c]) {
+                        present[c] = true;
+                        effects++;
+                    }
+                }
+            }
+        }
+
+        double sum = 0d;
+        long massA, massB;
+        int offsetA, offsetB;
+        for (int r = 0; r < rows; r++) {
+            massA = r < this.rows ? this.rowMass[r] : 0L;
+            massB = r < other.rows ? other.rowMass[r] : 0L;
+            offsetA = r * this.columns;
+            offsetB = r * other.columns;
+            if (massA < 1 && massB < 1) {
+                continue;
+            }
+            causes++;
+
+            if (massA < 1) {
+                sum += effects - 2d + (double) kernel.getSquareSum(other.counts, offsetB, other.columns) / ((double) massB * massB);
+            } else if (massB < 1) {
+                sum += effects - 2d + (double) kernel.getSquareSum(this.counts, offsetA, this.columns) / ((double) massA * massA);
+            } else {
+                sum += kernel.getSquaredDifference(this.counts, offsetA, 1d / massA, other.counts, offsetB, 1d / massB, columns);
+                sum += (double) kernel.getSquareSum(this.counts, offsetA + columns, this.columns - columns) / ((double) massA * massA);
+                sum += (double) kernel.getSquareSum(other.counts, offsetB + columns, other.columns - columns) / ((double) massB * massB);
+            }
+        }
+
+        return 1f - (float) (sum / ((long) causes * effects));
+    }
+
+    @Override
+    public long getCount(Object k0, Object k1) {
+        int r = this.findRow(k0);
+        if (r < 0) {
+            return 0L;
+        }
+        int i = this.findCell(r, k1);
+        return i < 0 ? 0L : this.counts[i];
+    }
+
+    @Override
+    public long getMass(Object k0) {
+        int r = this.findRow(k0);
+        return r < 0 ? 0L : this.rowMass[r];
+    }
+
+    @Override
+    public long getMaxCount(Object k0) {
+        int r = this.findRow(k0);
+        return r < 0 ? 0L : this.rowMax[r];
+    }
+
+    @Override
+    public long getSquareSum() {
+        return this.squareSum;
+    }
+
+    @Override
+    public long increment(A k0, B k1, long delta) {
+        int r = this.rowIds.getId(k0);
+        int c = this.columnIds.getId(k1);
+        this.ensure(r, c);
+        int i = r * this.columns + c;
+        long value = this.counts[i] + delta;
+        if (Integer.MAX_VALUE < value) {
+            throw new ArithmeticException("Frequency exceeds the range of a dense matrix.");
+        }
+        this.set(r, i, (int) value);
+        return value;
+    }
+
+    @Override
+    public Integer put(A k0, B k1, Integer v) {
+        Integer previous = this.get(k0, k1);
+        int r = this.rowIds.getId(k0);
+        int c = this.columnIds.getId(k1);
+        this.ensure(r, c);
+        this.set(r, r * this.columns + c, v);
+        return previous;
+    }
+
+    @Override
+    public Integer get(A k0, B k1) {
+        int r = this.findRow(k0);
+        if (r < 0) {
+            return null;
+        }
+        int i = this.findCell(r, k1);
+        return i < 0 || this.counts[i] == 0 ? null : this.counts[i];
+    }
+
+    @Override
+    public Map<B, Integer> getRow(A key) {
+        int r = this.rowIds.getId(key);
+        this.ensure(r, 0);
+        return new Row(r);
+    }
+
+    @Override
+    public void integrate(Matrix<A, B, Integer> other) {
+        for (Map.Entry<A, Map<B, Integer>> entry : other.entrySet()) {
+            for (Map.Entry<B, Integer> subEntry : entry.getValue().entrySet()) {
+                this.put(entry.getKey(), subEntry.getKey(), subEntry.getValue());
+            }
+        }
+    }
+
+    @Override
+    public String print() {
+        return this.toSparse().print();
+    }
+
+    @Override
+    public Set<B> getKeys(A k) {
+        Map<B, Integer> row = this.get(k);
+        if (row == null) {
+            return new HashSet<>();
+        }
+        return new HashSet<>(row.keySet());
+    }
+
+    @Override
+    public List<Integer> getValues(A k) {
+        Map<B, Integer> row = this.get(k);
+        if (row == null) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(row.values());
+    }
+
+    @Override
+    public void clear() {
+        this.allocate(this.rows, this.columns);
+    }
+
+    @Override
+    public int size() {
+        return this.nonEmptyRows;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        int r = this.findRow(key);
+        return r >= 0 && this.rowCells[r] > 0;
+    }
+
+    @Override
+    public Map<B, Integer> get(Object key) {
+        int r = this.findRow(key);
+        return r < 0 || this.rowCells[r] < 1 ? null : new Row(r);
+    }
+
+    @Override
+    public Set<Entry<A, Map<B, Integer>>> entrySet() {
+        return new AbstractSet<Entry<A, Map<B, Integer>>>() {
+            @Override
+            public Iterator<Entry<A, Map<B, Integer>>> iterator() {
+                return new Iterator<Entry<A, Map<B, Integer>>>() {
+                    private int next = this.seek(0);
+
+                    private int seek(int r) {
+                        while (r < DenseMatrix.this.rows && DenseMatrix.this.rowCells[r] < 1) {
+                            r++;
+                        }
+                        return r;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return this.next < DenseMatrix.this.rows;
+                    }
+
+                    @Override
+                    public Entry<A, Map<B, Integer>> next() {
+                        if (!this.hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        int r = this.next;
+                        this.next = this.seek(r + 1);
+                        Map<B, Integer> row = new Row(r);
+                        return new SimpleImmutableEntry<>(DenseMatrix.this.rowIds.get(r), row);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return DenseMatrix.this.nonEmptyRows;
+            }
+        };
+    }
+
+    private class Row extends AbstractMap<B, Integer> {
+        private final int r;
+
+        private Row(int r) {
+            this.r = r;
+        }
+
+        @Override
+        public int size() {
+            return DenseMatrix.this.rowCells[this.r];
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return this.get(key) != null;
+        }
+
+        @Override
+        public Integer get(Object key) {
+            int i = DenseMatrix.this.findCell(this.r, key);
+            return i < 0 || DenseMatrix.this.counts[i] == 0 ? null : DenseMatrix.this.counts[i];
+        }
+
+        @Override
+        public Integer put(B key, Integer value) {
+            Integer previous = this.get(key);
+            int c = DenseMatrix.this.columnIds.getId(key);
+            DenseMatrix.this.ensure(this.r, c);
+            DenseMatrix.this.set(this.r, this.r * DenseMatrix.this.columns + c, value);
+            return previous;
+        }
+
+        @Override
+        public Set<Entry<B, Integer>> entrySet() {
+            return new AbstractSet<Entry<B, Integer>>() {
+                @Override
+                public Iterator<Entry<B, Integer>> iterator() {
+                    return new Iterator<Entry<B, Integer>>() {
+                        private final int offset = Row.this.r * DenseMatrix.this.columns;
+                        private int next = this.seek(0);
+
+                        private int seek(int c) {
+                            while (c < DenseMatrix.this.columns && DenseMatrix.this.counts[this.offset + c] == 0) {
+                                c++;
+                            }
+                            return c;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return this.next < DenseMatrix.this.columns;
+                        }
+
+                        @Override
+                        public Entry<B, Integer> next() {
+                            if (!this.hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            int c = this.next;
+                            this.next = this.seek(c + 1);
+                            Integer value = DenseMatrix.this.counts[this.offset + c];
+                            return new SimpleImmutableEntry<>(DenseMatrix.this.columnIds.get(c), value);
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return Row.this.size();
+                }
+            };
+        }
+    }
+}
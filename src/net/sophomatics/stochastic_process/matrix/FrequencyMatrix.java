@@ -0,0 +1,22 @@
+package net.sophomatics.stochastic_process.matrix;
+
+/**
+ * Matrix of frequencies with primitive access that does not saturate at Integer.MAX_VALUE
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-07
+ */
+public interface FrequencyMatrix<A, B> extends Matrix<A, B, Integer> {
+    long getCount(Object k0, Object k1);
+    long getMass(Object k0);
+    long getMaxCount(Object k0);
+    long getSquareSum();
+    long increment(A k0, B k1, long delta);
+
+    /**
+     * @return a matrix with the same frequencies that may share storage with this one, writes to either matrix do not
+     * affect the other
+     */
+    FrequencyMatrix<A, B> fork();
+}
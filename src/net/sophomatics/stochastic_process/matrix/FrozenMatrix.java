@@ -0,0 +1,369 @@
+package net.sophomatics.stochastic_process.matrix;
+
+import net.sophomatics.util.Interner;
+
+import java.util.*;
+
+/**
+ * Immutable compressed sparse row matrix of frequencies. Keys are interned, rows and columns are sorted by id.
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-02
+ */
+public class FrozenMatrix<A, B> extends AbstractMap<A, Map<B, Integer>> implements FrequencyMatrix<A, B> {
+    private final Interner<A> rowIds;
+    private final Interner<B> columnIds;
+    private final int[] rowKeys;
+    private final int[] rowStart;
+    private final int[] columnKeys;
+    private final int[] counts;
+    private final long[] rowMass;
+    private final int[] rowMax;
+    private final long squareSum;
+
+    private FrozenMatrix(Interner<A> rowIds, Interner<B> columnIds, int[] rowKeys, int[] rowStart, int[] columnKeys, int[] counts) {
+        this.rowIds = rowIds;
+        this.columnIds = columnIds;
+        this.rowKeys = rowKeys;
+        this.rowStart = rowStart;
+        this.columnKeys = columnKeys;
+        this.counts = counts;
+        this.rowMass = new long[rowKeys.length];
+        this.rowMax = new int[rowKeys.length];
+
+        long sum = 0L;
+        for (int r = 0; r < rowKeys.length; r++) {
+            long mass = 0L;
+            int max = 0;
+            for (int i = rowStart[r]; i < rowStart[r + 1]; i++) {
+                mass += counts[i];
+                if (max < counts[i]) {
+                    max = counts[i];
+                }
+                sum += (long) counts[i] * counts[i];
+            }
+            this.rowMass[r] = mass;
+            this.rowMax[r] = max;
+        }
+        this.squareSum = sum;
+    }
+
+    /**
+     * @return the frozen matrix or null if a frequency exceeds the int range of the compact layout
+     */
+    public static <A, B> FrozenMatrix<A, B> freeze(FrequencyMatrix<A, B> matrix, Interner<A> rowIds, Interner<B> columnIds) {
+        // collect and sort non-empty rows by id
+        List<int[]> rows = new ArrayList<>(matrix.size());
+        List<Map<B, Integer>> rowMaps = new ArrayList<>(matrix.size());
+        int cells = 0;
+        for (Map.Entry<A, Map<B, Integer>> entry : matrix.entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                continue;
+            }
+            if (Integer.MAX_VALUE <= matrix.getMaxCount(entry.getKey())) {
+                return null;
+            }
+            rows.add(new int[]{rowIds.getId(entry.getKey()), rowMaps.size()});
+            rowMaps.add(entry.getValue());
+            cells += entry.getValue().size();
+        }
+        Collections.sort(rows, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] r0, int[] r1) {
+                return Integer.compare(r0[0], r1[0]);
+            }
+        });
+
+        int[] rowKeys = new int[rows.size()];
+        int[] rowStart = new int[rows.size() + 1];
+        int[] columnKeys = new int[cells];
+        int[] counts = new int[cells];
+
+        // fill rows, sort columns within each row
+        long[] packed = new long[0];
+        int pos = 0;
+        for (int r = 0; r < rowKeys.length; r++) {
+            rowKeys[r] = rows.get(r)[0];
+            rowStart[r] = pos;
+            Map<B, Integer> row = rowMaps.get(rows.get(r)[1]);
+            if (packed.length < row.size()) {
+                packed = new long[row.size()];
+            }
+            int n = 0;
+            for (Map.Entry<B, Integer> cell : row.entrySet()) {
+                packed[n++] = ((long) columnIds.getId(cell.getKey()) << 32) | (cell.getValue() & 0xFFFFFFFFL);
+            }
+            Arrays.sort(packed, 0, n);
+            for (int i = 0; i < n; i++) {
+                columnKeys[pos] = (int) (packed[i] >>> 32);
+                counts[pos] = (int) packed[i];
+                pos++;
+            }
+        }
+        rowStart[rowKeys.length] = pos;
+
+        return new FrozenMatrix<>(rowIds, columnIds, rowKeys, rowStart, columnKeys, counts);
+    }
+
+    public CounterMatrix<A, B> thaw() {
+        CounterMatrix<A, B> matrix = new CounterMatrix<>();
+        CounterRow<B> row;
+        for (int r = 0; r < this.rowKeys.length; r++) {
+            row = matrix.getCounterRow(this.rowIds.get(this.rowKeys[r]));
+            for (int i = this.rowStart[r]; i < this.rowStart[r + 1]; i++) {
+                row.increment(this.columnIds.get(this.columnKeys[i]), this.counts[i]);
+            }
+        }
+        return matrix;
+    }
+
+    public boolean isCompatible(FrozenMatrix<A, B> other) {
+        return this.rowIds == other.rowIds && this.columnIds == other.columnIds;
+    }
+
+    private int findRow(Object k) {
+        int id = this.rowIds.findId(k);
+        if (id < 0) {
+            return -1;
+        }
+        int r = Arrays.binarySearch(this.rowKeys, id);
+        return r < 0 ? -1 : r;
+    }
+
+    private int findCell(int r, Object k) {
+        int id = this.columnIds.findId(k);
+        if (id < 0) {
+            return -1;
+        }
+        int i = Arrays.binarySearch(this.columnKeys, this.rowStart[r], this.rowStart[r + 1], id);
+        return i < 0 ? -1 : i;
+    }
+
+    @Override
+    public long getCount(Object k0, Object k1) {
+        int r = this.findRow(k0);
+        if (r < 0) {
+            return 0L;
+        }
+        int i = this.findCell(r, k1);
+        return i < 0 ? 0L : this.counts[i];
+    }
+
+    @Override
+    public long getMass(Object k) {
+        int r = this.findRow(k);
+        return r < 0 ? 0L : this.rowMass[r];
+    }
+
+    @Override
+    public long getMaxCount(Object k) {
+        int r = this.findRow(k);
+        return r < 0 ? 0L : this.rowMax[r];
+    }
+
+    @Override
+    public long getSquareSum() {
+        return this.squareSum;
+    }
+
+    @Override
+    public long increment(A k0, B k1, long delta) {
+        throw new UnsupportedOperationException("Frozen matrices are immutable.");
+    }
+
+    public int getCellCount() {
+        return this.counts.length;
+    }
+
+    public long getEstimatedBytes() {
+        return 24L * this.rowKeys.length + 8L * this.counts.length;
+    }
+
+    public long getDotProduct(FrozenMatrix<A, B> other) {
+        long dotProduct = 0L;
+        int r0 = 0, r1 = 0;
+        int i0, i1, end0, end1;
+        while (r0 < this.rowKeys.length && r1 < other.rowKeys.length) {
+            if (this.rowKeys[r0] < other.rowKeys[r1]) {
+                r0++;
+            } else if (other.rowKeys[r1] < this.rowKeys[r0]) {
+                r1++;
+            } else {
+                i0 = this.rowStart[r0];
+                end0 = this.rowStart[r0 + 1];
+                i1 = other.rowStart[r1];
+                end1 = other.rowStart[r1 + 1];
+                while (i0 < end0 && i1 < end1) {
+                    if (this.columnKeys[i0] < other.columnKeys[i1]) {
+                        i0++;
+                    } else if (other.columnKeys[i1] < this.columnKeys[i0]) {
+                        i1++;
+                    } else {
+                        dotProduct += (long) this.counts[i0++] * other.counts[i1++];
+                    }
+                }
+                r0++;
+                r1++;
+            }
+        }
+        return dotProduct;
+    }
+
+    @Override
+    public int size() {
+        return this.rowKeys.length;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return this.findRow(key) >= 0;
+    }
+
+    @Override
+    public Map<B, Integer> get(Object key) {
+        int r = this.findRow(key);
+        return r < 0 ? null : new Row(r);
+    }
+
+    @Override
+    public Set<Entry<A, Map<B, Integer>>> entrySet() {
+        return new AbstractSet<Entry<A, Map<B, Integer>>>() {
+            @Override
+            public Iterator<Entry<A, Map<B, Integer>>> iterator() {
+                return new Iterator<Entry<A, Map<B, Integer>>>() {
+                    private int r = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return this.r < FrozenMatrix.this.rowKeys.length;
+                    }
+
+                    @Override
+                    public Entry<A, Map<B, Integer>> next() {
+                        if (!this.hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        A key = FrozenMatrix.this.rowIds.get(FrozenMatrix.this.rowKeys[this.r]);
+                        Map<B, Integer> row = new Row(this.r++);
+                        return new SimpleImmutableEntry<>(key, row);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return FrozenMatrix.this.rowKeys.length;
+            }
+        };
+    }
+
+    @Override
+    public Integer put(A k0, B k1, Integer v) {
+        throw new UnsupportedOperationException("Frozen matrices are immutable.");
+    }
+
+    @Override
+    public Integer get(A k0, B k1) {
+        int r = this.findRow(k0);
+        if (r < 0) {
+            return null;
+        }
+        int i = this.findCell(r, k1);
+        return i < 0 ? null : this.counts[i];
+    }
+
+    @Override
+    public Map<B, Integer> getRow(A key) {
+        throw new UnsupportedOperationException("Frozen matrices are immutable.");
+    }
+
+    @Override
+    public void integrate(Matrix<A, B, Integer> other) {
+        throw new UnsupportedOperationException("Frozen matrices are immutable.");
+    }
+
+    @Override
+    public FrozenMatrix<A, B> fork() {
+        return this;
+    }
+
+    @Override
+    public String print() {
+        return this.thaw().print();
+    }
+
+    @Override
+    public Set<B> getKeys(A k) {
+        Map<B, Integer> row = this.get(k);
+        if (row == null) {
+            return new HashSet<>();
+        }
+        return new HashSet<>(row.keySet());
+    }
+
+    @Override
+    public List<Integer> getValues(A k) {
+        Map<B, Integer> row = this.get(k);
+        if (row == null) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(row.values());
+    }
+
+    private class Row extends AbstractMap<B, Integer> {
+        private final int r;
+
+        private Row(int r) {
+            this.r = r;
+        }
+
+        @Override
+        public int size() {
+            return FrozenMatrix.this.rowStart[this.r + 1] - FrozenMatrix.this.rowStart[this.r];
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return FrozenMatrix.this.findCell(this.r, key) >= 0;
+        }
+
+        @Override
+        public Integer get(Object key) {
+            int i = FrozenMatrix.this.findCell(this.r, key);
+            return i < 0 ? null : FrozenMatrix.this.counts[i];
+        }
+
+        @Override
+        public Set<Entry<B, Integer>> entrySet() {
+            return new AbstractSet<Entry<B, Integer>>() {
+                @Override
+                public Iterator<Entry<B, Integer>> iterator() {
+                    return new Iterator<Entry<B, Integer>>() {
+                        private int i = FrozenMatrix.this.rowStart[Row.this.r];
+
+                        @Override
+                        public boolean hasNext() {
+                            return this.i < FrozenMatrix.this.rowStart[Row.this.r + 1];
+                        }
+
+                        @Override
+                        public Entry<B, Integer> next() {
+                            if (!this.hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            B key = FrozenMatrix.this.columnIds.get(FrozenMatrix.this.columnKeys[this.i]);
+                            Integer value = FrozenMatrix.this.counts[this.i++];
+                            return new SimpleImmutableEntry<>(key, value);
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return Row.this.size();
+                }
+            };
+        }
+    }
+}
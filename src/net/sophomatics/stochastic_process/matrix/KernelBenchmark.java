@@ -0,0 +1,91 @@
+package net.sophomatics.stochastic_process.matrix;
+
+import net.sophomatics.util.Interner;
+
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Benchmark of similarity kernels on dense models against the sparse nested map loop
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-11
+ */
+public class KernelBenchmark {
+    private final static Random r = new Random(7331);
+    private static long blackHole = 0L;
+
+    private static long getSparseDotProduct(CounterMatrix<Integer, Integer> m0, CounterMatrix<Integer, Integer> m1) {
+        long dotProduct = 0L;
+        for (Map.Entry<Integer, Map<Integer, Integer>> entry : m0.entrySet()) {
+            for (Integer eachColumn : entry.getValue().keySet()) {
+                dotProduct += m0.getCount(entry.getKey(), eachColumn) * m1.getCount(entry.getKey(), eachColumn);
+            }
+        }
+        return dotProduct;
+    }
+
+    private static double measure(String name, int size, int repetitions, Runnable operation) {
+        for (int i = 0; i < repetitions; i++) {
+            operation.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < repetitions; i++) {
+            operation.run();
+        }
+        double nanos = (double) (System.nanoTime() - start) / repetitions;
+        System.out.println(String.format("%-24s %5dx%-5d %12.1f ns/op", name, size, size, nanos));
+        return nanos;
+    }
+
+    private static Runnable dotProduct(final DenseMatrix<Integer, Integer> d0, final DenseMatrix<Integer, Integer> d1, final SimilarityKernel kernel) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                blackHole += d0.getDotProduct(d1, kernel);
+            }
+        };
+    }
+
+    private static Runnable closeness(final DenseMatrix<Integer, Integer> d0, final DenseMatrix<Integer, Integer> d1, final SimilarityKernel kernel) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                blackHole += (long) (d0.getVectorCloseness(d1, kernel) * 1000);
+            }
+        };
+    }
+
+    public static void main(String[] args) {
+        SimilarityKernel scalar = DenseMatrix.getKernel("scalar");
+        SimilarityKernel unrolled = DenseMatrix.getKernel("unrolled");
+
+        for (int size : new int[]{16, 64, 256}) {
+            Interner<Integer> rowIds = new Interner<>();
+            Interner<Integer> columnIds = new Interner<>();
+            final CounterMatrix<Integer, Integer> s0 = new CounterMatrix<>(), s1 = new CounterMatrix<>();
+            for (int i = 0; i < size * size * 2; i++) {
+                s0.increment(r.nextInt(size), r.nextInt(size), 1L);
+                s1.increment(r.nextInt(size), r.nextInt(size), 1L);
+            }
+            final DenseMatrix<Integer, Integer> d0 = DenseMatrix.of(s0, rowIds, columnIds);
+            final DenseMatrix<Integer, Integer> d1 = DenseMatrix.of(s1, rowIds, columnIds);
+            int repetitions = Math.max(100, 20000000 / (size * size));
+
+            measure("sparse dot product", size, repetitions / 10, new Runnable() {
+                @Override
+                public void run() {
+                    blackHole += getSparseDotProduct(s0, s1);
+                }
+            });
+
+            measure("unrolled dot product", size, repetitions, dotProduct(d0, d1, unrolled));
+            measure("unrolled closeness", size, repetitions, closeness(d0, d1, unrolled));
+            measure("scalar dot product", size, repetitions, dotProduct(d0, d1, scalar));
+            measure("scalar closeness", size, repetitions, closeness(d0, d1, scalar));
+            System.out.println();
+        }
+        System.out.println(blackHole == 42L ? "" : "done");
+    }
+}
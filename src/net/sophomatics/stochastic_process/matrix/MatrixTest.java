@@ -1,6 +1,6 @@
 package net.sophomatics.stochastic_process.matrix;
 
-import net.sophomatics.util.Timer;
+import net.sophomatics.util.ProgressReporter;
 
 import java.util.Random;
 import java.util.logging.Level;
@@ -15,11 +15,11 @@ public class MatrixTest {
 
     private static int[] getRandomArray(int size) {
         int totalIterations = size * size;
-        Timer t = new Timer(totalIterations, "Generating random array.");
+        ProgressReporter t = new ProgressReporter(totalIterations, "Generating random array.");
         int[] randomArray = new int[totalIterations];
         for (int i = 0; i < totalIterations; i++) {
             randomArray[i] = r.nextInt(10);
-            t.tick("");
+            t.tick();
         }
         t.finished();
         return randomArray;
@@ -27,11 +27,11 @@ public class MatrixTest {
 
     private static void fillMatrix(Matrix<Integer, Integer, Integer> matrix, int[] randomArray, int size) {
         int totalIterations = size * size;
-        Timer t = new Timer(totalIterations, "Filling matrix.");
+        ProgressReporter t = new ProgressReporter(totalIterations, "Filling matrix.");
         for (int x = 0; x < size; x++) {
             for (int y = 0; y < size; y++) {
                 matrix.put(x, y, randomArray[x * size + y]);
-                t.tick("");
+                t.tick();
             }
         }
         t.finished();
@@ -39,7 +39,7 @@ public class MatrixTest {
 
     private static void checkMatrix(Matrix<Integer, Integer, Integer> matrix, int[] randomArray, int size){
         int totalIterations = size * size;
-        Timer t = new Timer(totalIterations, "Checking matrix.");
+        ProgressReporter t = new ProgressReporter(totalIterations, "Checking matrix.");
         int value, expected;
         for (int x = 0; x < size; x++) {
             for (int y = 0; y < size; y++) {
@@ -48,7 +48,7 @@ public class MatrixTest {
                 if (value != expected) {
                     logger.log(Level.SEVERE, String.format("Found %s, expected %s @(%s, %s)", value, expected, x, y));
                 }
-                t.tick("");
+                t.tick();
             }
         }
         t.finished();
@@ -125,16 +125,18 @@ public class NestedMapMatrix<A, B, C> extends HashMap<A, Map<B, C>> implements M
         }
     }
 
+    protected Map<B, C> newRow(int maxSize) {
+        if (maxSize < 1) {
+            return new HashMap<>();
+        }
+        return new HashMap<>(maxSize);
+    }
+
     @Override
     public Map<B, C> getRow(A key) {
         Map<B, C> row = this.get(key);
         if (row == null) {
-            if (this.maxSize < 1) {
-                row = new HashMap<>();
-
-            } else {
-                row = new HashMap<>(this.maxSize);
-            }
+            row = this.newRow(this.maxSize);
             this.put(key, row);
         }
 
@@ -0,0 +1,353 @@
+package net.sophomatics.stochastic_process.matrix;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Off-heap frequency table shared by all models of a pool. Cells are keyed by (model id, cause id, effect id) and
+ * stored as structure of arrays in direct buffers. Cells of a row and rows of a model are chained for iteration.
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-04
+ */
+public class OffHeapArena {
+    private final static int EMPTY = -1;
+    private final static int DELETED = -2;
+    private final static int INITIAL_CAPACITY = 1 << 10;
+
+    // cell table: model, cause, effect, count, next cell in row
+    private int cellCapacity, cellSize, cellUsed;
+    private IntBuffer cellModel, cellCause, cellEffect, cellCount, cellNext;
+
+    // row table: model, cause, mass, max, first cell, next row in model
+    private int rowCapacity, rowSize, rowUsed;
+    private IntBuffer rowModel, rowCause, rowMass, rowMax, rowHead, rowNext;
+
+    // model table: first row, number of cells, square sum
+    private int modelCapacity;
+    private IntBuffer modelHead, modelCells;
+    private LongBuffer modelSquareSum;
+
+    public OffHeapArena() {
+        this.allocateCells(INITIAL_CAPACITY);
+        this.allocateRows(INITIAL_CAPACITY);
+        this.allocateModels(INITIAL_CAPACITY);
+    }
+
+    private static IntBuffer[] allocate(int capacity, int fields) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(capacity * fields * 4).order(ByteOrder.nativeOrder());
+        IntBuffer[] columns = new IntBuffer[fields];
+        for (int f = 0; f < fields; f++) {
+            buffer.limit((f + 1) * capacity * 4).position(f * capacity * 4);
+            columns[f] = buffer.slice().order(ByteOrder.nativeOrder()).asIntBuffer();
+        }
+        return columns;
+    }
+
+    private static void fill(IntBuffer column, int value) {
+        for (int i = 0; i < column.capacity(); i++) {
+            column.put(i, value);
+        }
+    }
+
+    private static int hash(int model, int cause, int effect) {
+        int h = model * 0x9E3779B1 + cause;
+        h = h * 0x85EBCA77 + effect;
+        return h ^ (h >>> 16);
+    }
+
+    private void allocateCells(int capacity) {
+        IntBuffer[] columns = allocate(capacity, 5);
+        this.cellModel = columns[0];
+        this.cellCause = columns[1];
+        this.cellEffect = columns[2];
+        this.cellCount = columns[3];
+        this.cellNext = columns[4];
+        fill(this.cellModel, EMPTY);
+        this.cellCapacity = capacity;
+        this.cellSize = 0;
+        this.cellUsed = 0;
+    }
+
+    private void allocateRows(int capacity) {
+        IntBuffer[] columns = allocate(capacity, 6);
+        this.rowModel = columns[0];
+        this.rowCause = columns[1];
+        this.rowMass = columns[2];
+        this.rowMax = columns[3];
+        this.rowHead = columns[4];
+        this.rowNext = columns[5];
+        fill(this.rowModel, EMPTY);
+        this.rowCapacity = capacity;
+        this.rowSize = 0;
+        this.rowUsed = 0;
+    }
+
+    private void allocateModels(int capacity) {
+        IntBuffer[] columns = allocate(capacity, 2);
+        LongBuffer squareSum = ByteBuffer.allocateDirect(capacity * 8).order(ByteOrder.nativeOrder()).asLongBuffer();
+        fill(columns[0], EMPTY);
+        for (int m = 0; m < this.modelCapacity; m++) {
+            columns[0].put(m, this.modelHead.get(m));
+            columns[1].put(m, this.modelCells.get(m));
+            squareSum.put(m, this.modelSquareSum.get(m));
+        }
+        this.modelHead = columns[0];
+        this.modelCells = columns[1];
+        this.modelSquareSum = squareSum;
+        this.modelCapacity = capacity;
+    }
+
+    private void ensureModel(int model) {
+        if (model < 0) {
+            throw new IllegalArgumentException("Model ids must not be negative.");
+        }
+        if (model >= this.modelCapacity) {
+            int capacity = this.modelCapacity;
+            while (capacity <= model) {
+                capacity <<= 1;
+            }
+            this.allocateModels(capacity);
+        }
+    }
+
+    private int findCell(int model, int cause, int effect) {
+        int mask = this.cellCapacity - 1;
+        int m;
+        for (int i = hash(model, cause, effect) & mask; ; i = (i + 1) & mask) {
+            m = this.cellModel.get(i);
+            if (m == EMPTY) {
+                return -1;
+            }
+            if (m == model && this.cellCause.get(i) == cause && this.cellEffect.get(i) == effect) {
+                return i;
+            }
+        }
+    }
+
+    private int findRow(int model, int cause) {
+        int mask = this.rowCapacity - 1;
+        int m;
+        for (int i = hash(model, cause, 0) & mask; ; i = (i + 1) & mask) {
+            m = this.rowModel.get(i);
+            if (m == EMPTY) {
+                return -1;
+            }
+            if (m == model && this.rowCause.get(i) == cause) {
+                return i;
+            }
+        }
+    }
+
+    private int insertCell(int model, int cause, int effect) {
+        int mask = this.cellCapacity - 1;
+        int i = hash(model, cause, effect) & mask;
+        while (this.cellModel.get(i) >= 0) {
+            i = (i + 1) & mask;
+        }
+        if (this.cellModel.get(i) == EMPTY) {
+            this.cellUsed++;
+        }
+        this.cellModel.put(i, model);
+        this.cellCause.put(i, cause);
+        this.cellEffect.put(i, effect);
+        this.cellCount.put(i, 0);
+        this.cellNext.put(i, EMPTY);
+        this.cellSize++;
+        return i;
+    }
+
+    private int insertRow(int model, int cause) {
+        int mask = this.rowCapacity - 1;
+        int i = hash(model, cause, 0) & mask;
+        while (this.rowModel.get(i) >= 0) {
+            i = (i + 1) & mask;
+        }
+        if (this.rowModel.get(i) == EMPTY) {
+            this.rowUsed++;
+        }
+        this.rowModel.put(i, model);
+        this.rowCause.put(i, cause);
+        this.rowMass.put(i, 0);
+        this.rowMax.put(i, 0);
+        this.rowHead.put(i, EMPTY);
+        this.rowNext.put(i, this.modelHead.get(model));
+        this.modelHead.put(model, i);
+        this.rowSize++;
+        return i;
+    }
+
+    private void rehashCells(int capacity) {
+        IntBuffer model = this.cellModel, cause = this.cellCause, effect = this.cellEffect, count = this.cellCount;
+        int oldCapacity = this.cellCapacity;
+        this.allocateCells(capacity);
+
+        int cell, row;
+        for (int r = 0; r < this.rowCapacity; r++) {
+            this.rowHead.put(r, EMPTY);
+        }
+        for (int i = 0; i < oldCapacity; i++) {
+            if (model.get(i) < 0) {
+                continue;
+            }
+            cell = this.insertCell(model.get(i), cause.get(i), effect.get(i));
+            this.cellCount.put(cell, count.get(i));
+            row = this.findRow(model.get(i), cause.get(i));
+            this.cellNext.put(cell, this.rowHead.get(row));
+            this.rowHead.put(row, cell);
+        }
+    }
+
+    private void rehashRows(int capacity) {
+        IntBuffer model = this.rowModel, cause = this.rowCause, mass = this.rowMass, max = this.rowMax, head = this.rowHead;
+        int oldCapacity = this.rowCapacity;
+        this.allocateRows(capacity);
+
+        for (int m = 0; m < this.modelCapacity; m++) {
+            this.modelHead.put(m, EMPTY);
+        }
+        int row;
+        for (int i = 0; i < oldCapacity; i++) {
+            if (model.get(i) < 0) {
+                continue;
+            }
+            row = this.insertRow(model.get(i), cause.get(i));
+            this.rowMass.put(row, mass.get(i));
+            this.rowMax.put(row, max.get(i));
+            this.rowHead.put(row, head.get(i));
+        }
+    }
+
+    private void ensureCapacity() {
+        // keep load including deleted slots below one half
+        if (this.rowCapacity < 2 * (this.rowUsed + 1)) {
+            this.rehashRows(this.rowCapacity < 4 * (this.rowSize + 1) ? this.rowCapacity << 1 : this.rowCapacity);
+        }
+        if (this.cellCapacity < 2 * (this.cellUsed + 1)) {
+            this.rehashCells(this.cellCapacity < 4 * (this.cellSize + 1) ? this.cellCapacity << 1 : this.cellCapacity);
+        }
+    }
+
+    public void add(int model, int cause, int effect, int delta) {
+        this.ensureModel(model);
+        this.ensureCapacity();
+
+        int cell = this.findCell(model, cause, effect);
+        int row;
+        if (cell < 0) {
+            row = this.findRow(model, cause);
+            if (row < 0) {
+                row = this.insertRow(model, cause);
+            }
+            cell = this.insertCell(model, cause, effect);
+            this.cellNext.put(cell, this.rowHead.get(row));
+            this.rowHead.put(row, cell);
+            this.modelCells.put(model, this.modelCells.get(model) + 1);
+        } else {
+            row = this.findRow(model, cause);
+        }
+
+        int oldCount = this.cellCount.get(cell);
+        int newCount = oldCount + delta;
+        this.cellCount.put(cell, newCount);
+        this.rowMass.put(row, this.rowMass.get(row) + delta);
+        if (this.rowMax.get(row) < newCount) {
+            this.rowMax.put(row, newCount);
+        }
+        this.modelSquareSum.put(model, this.modelSquareSum.get(model) + (long) newCount * newCount - (long) oldCount * oldCount);
+    }
+
+    public void clear(int model) {
+        if (model >= this.modelCapacity) {
+            return;
+        }
+        for (int row = this.modelHead.get(model); row >= 0; row = this.rowNext.get(row)) {
+            for (int cell = this.rowHead.get(row); cell >= 0; cell = this.cellNext.get(cell)) {
+                this.cellModel.put(cell, DELETED);
+                this.cellSize--;
+            }
+            this.rowModel.put(row, DELETED);
+            this.rowSize--;
+        }
+        this.modelHead.put(model, EMPTY);
+        this.modelCells.put(model, 0);
+        this.modelSquareSum.put(model, 0L);
+    }
+
+    public int getCount(int model, int cause, int effect) {
+        int cell = this.findCell(model, cause, effect);
+        return cell < 0 ? 0 : this.cellCount.get(cell);
+    }
+
+    public int getMass(int model, int cause) {
+        int row = this.findRow(model, cause);
+        return row < 0 ? 0 : this.rowMass.get(row);
+    }
+
+    public int getMaxCount(int model, int cause) {
+        int row = this.findRow(model, cause);
+        return row < 0 ? 0 : this.rowMax.get(row);
+    }
+
+    public int getCellCount(int model) {
+        return model < this.modelCapacity ? this.modelCells.get(model) : 0;
+    }
+
+    public long getSquareSum(int model) {
+        return model < this.modelCapacity ? this.modelSquareSum.get(model) : 0L;
+    }
+
+    public long getDotProduct(int model0, int model1) {
+        if (this.getCellCount(model1) < this.getCellCount(model0)) {
+            return this.getDotProduct(model1, model0);
+        }
+        long dotProduct = 0L;
+        int cause;
+        for (int row = this.getFirstRow(model0); row >= 0; row = this.getNextRow(row)) {
+            cause = this.rowCause.get(row);
+            for (int cell = this.rowHead.get(row); cell >= 0; cell = this.cellNext.get(cell)) {
+                dotProduct += (long) this.cellCount.get(cell) * this.getCount(model1, cause, this.cellEffect.get(cell));
+            }
+        }
+        return dotProduct;
+    }
+
+    public int getRow(int model, int cause) {
+        return this.findRow(model, cause);
+    }
+
+    public int getFirstRow(int model) {
+        return model < this.modelCapacity ? this.modelHead.get(model) : EMPTY;
+    }
+
+    public int getNextRow(int row) {
+        return this.rowNext.get(row);
+    }
+
+    public int getRowCause(int row) {
+        return this.rowCause.get(row);
+    }
+
+    public int getFirstCell(int row) {
+        return this.rowHead.get(row);
+    }
+
+    public int getNextCell(int cell) {
+        return this.cellNext.get(cell);
+    }
+
+    public int getCellEffect(int cell) {
+        return this.cellEffect.get(cell);
+    }
+
+    public int getCellValue(int cell) {
+        return this.cellCount.get(cell);
+    }
+
+    public long getByteSize() {
+        return 4L * (5L * this.cellCapacity + 6L * this.rowCapacity + 2L * this.modelCapacity) + 8L * this.modelCapacity;
+    }
+}
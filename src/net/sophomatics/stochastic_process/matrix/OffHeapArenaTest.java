@@ -0,0 +1,130 @@
+package net.sophomatics.stochastic_process.matrix;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Checks the off-heap arena against nested maps while models are filled past several rehashes, cleared and refilled
+ * into deleted slots.
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-04
+ */
+public class OffHeapArenaTest {
+    private final static Random r = new Random(7331);
+    private final static Logger logger = Logger.getLogger(OffHeapArenaTest.class.getSimpleName());
+    private static int errors = 0;
+
+    private static void fill(OffHeapArena arena, Map<Integer, Map<Integer, Map<Integer, Integer>>> expected, int model, int cells, int firstCause) {
+        Map<Integer, Map<Integer, Integer>> rows = expected.get(model);
+        if (rows == null) {
+            rows = new HashMap<>();
+            expected.put(model, rows);
+        }
+        int cause, effect, delta;
+        Map<Integer, Integer> row;
+        for (int i = 0; i < cells; i++) {
+            cause = firstCause + r.nextInt(50);
+            effect = r.nextInt(20);
+            delta = 1 + r.nextInt(3);
+            arena.add(model, cause, effect, delta);
+            row = rows.get(cause);
+            if (row == null) {
+                row = new HashMap<>();
+                rows.put(cause, row);
+            }
+            Integer count = row.get(effect);
+            row.put(effect, count == null ? delta : count + delta);
+        }
+    }
+
+    private static void report(String what, int model, long value, long expected) {
+        if (value != expected) {
+            logger.log(Level.SEVERE, String.format("%s of model %s is %s, expected %s", what, model, value, expected));
+            errors++;
+        }
+    }
+
+    private static void check(OffHeapArena arena, Map<Integer, Map<Integer, Map<Integer, Integer>>> expected, int models) {
+        Map<Integer, Map<Integer, Integer>> rows;
+        int cells, mass, max, rowCount, chainedCells, chainedRows;
+        long squareSum;
+        for (int model = 0; model < models; model++) {
+            rows = expected.get(model);
+            if (rows == null) {
+                rows = new HashMap<>();
+            }
+            cells = 0;
+            squareSum = 0L;
+            for (Map.Entry<Integer, Map<Integer, Integer>> row : rows.entrySet()) {
+                mass = 0;
+                max = 0;
+                for (Map.Entry<Integer, Integer> cell : row.getValue().entrySet()) {
+                    report("Count", model, arena.getCount(model, row.getKey(), cell.getKey()), cell.getValue());
+                    mass += cell.getValue();
+                    max = Math.max(max, cell.getValue());
+                    squareSum += (long) cell.getValue() * cell.getValue();
+                    cells++;
+                }
+                report("Mass", model, arena.getMass(model, row.getKey()), mass);
+                report("Max count", model, arena.getMaxCount(model, row.getKey()), max);
+            }
+            report("Cell count", model, arena.getCellCount(model), cells);
+            report("Square sum", model, arena.getSquareSum(model), squareSum);
+
+            // chains must reach every row and cell exactly once
+            chainedRows = 0;
+            chainedCells = 0;
+            for (int row = arena.getFirstRow(model); row >= 0; row = arena.getNextRow(row)) {
+                chainedRows++;
+                rowCount = 0;
+                for (int cell = arena.getFirstCell(row); cell >= 0; cell = arena.getNextCell(cell)) {
+                    rowCount++;
+                }
+                Map<Integer, Integer> row0 = rows.get(arena.getRowCause(row));
+                report("Chained cells of a row", model, rowCount, row0 == null ? -1 : row0.size());
+                chainedCells += rowCount;
+            }
+            report("Chained rows", model, chainedRows, rows.size());
+            report("Chained cells", model, chainedCells, cells);
+        }
+    }
+
+    public static void main(String[] args) {
+        int models = 64;
+        OffHeapArena arena = new OffHeapArena();
+        Map<Integer, Map<Integer, Map<Integer, Integer>>> expected = new HashMap<>();
+
+        // grows the cell, row and model tables several times
+        for (int model = 0; model < models; model++) {
+            fill(arena, expected, model, 500, 0);
+        }
+        check(arena, expected, models);
+        logger.info(String.format("Filled %s models into %s bytes.", models, arena.getByteSize()));
+
+        // refilling with new causes leaves deleted slots behind, once the tables have grown they rehash at the same
+        // capacity
+        long bytes = -1L;
+        for (int round = 0; round < 40; round++) {
+            if (round == 20) {
+                bytes = arena.getByteSize();
+            }
+            for (int model = round % 2; model < models; model += 2) {
+                arena.clear(model);
+                expected.remove(model);
+                fill(arena, expected, model, 500, 50 * round);
+            }
+            check(arena, expected, models);
+        }
+        report("Byte size after refilling", -1, arena.getByteSize(), bytes);
+
+        arena.clear(models + 100);
+        report("Cell count of an unknown model", models + 100, arena.getCellCount(models + 100), 0);
+
+        logger.info(String.format("Finished with %s errors.", errors));
+    }
+}
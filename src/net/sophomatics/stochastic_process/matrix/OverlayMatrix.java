@@ -0,0 +1,236 @@
+package net.sophomatics.stochastic_process.matrix;
+
+import java.util.*;
+
+/**
+ * Matrix of frequencies on top of a read-only base matrix, usually the frozen matrix of a library process. A row is
+ * read from the base until it is first written, which copies just this row. Rows that are not in the base are
+ * created directly.
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-22
+ */
+public class OverlayMatrix<A, B> extends AbstractMap<A, Map<B, Integer>> implements FrequencyMatrix<A, B> {
+    private FrequencyMatrix<A, B> base;
+    private final CounterMatrix<A, B> own;
+    // number of own rows that are not in the base and square sum of the base rows that own rows replace
+    private int added;
+    private long replacedSquareSum;
+    // base rows and their cells that no own row replaces yet
+    private int sharedRows;
+    private long sharedCells;
+
+    /**
+     * @param cells number of cells in base
+     */
+    public OverlayMatrix(FrequencyMatrix<A, B> base, long cells) {
+        this(base, new CounterMatrix<A, B>(), 0, 0L, base.size(), cells);
+    }
+
+    private OverlayMatrix(FrequencyMatrix<A, B> base, CounterMatrix<A, B> own, int added, long replacedSquareSum, int sharedRows, long sharedCells) {
+        this.base = base;
+        this.own = own;
+        this.added = added;
+        this.replacedSquareSum = replacedSquareSum;
+        this.sharedRows = sharedRows;
+        this.sharedCells = sharedCells;
+    }
+
+    /**
+     * @return number of base rows and rows of the overlay this one was forked from that it has not copied yet
+     */
+    public int getSharedRows() {
+        return this.sharedRows + this.own.getSharedRows();
+    }
+
+    /**
+     * @return number of cells in these rows
+     */
+    public long getSharedCells() {
+        return this.sharedCells + this.own.getSharedCells();
+    }
+
+    private CounterRow<B> getOwnRow(A key) {
+        CounterRow<B> row = this.own.findCounterRow(key);
+        if (row != null) {
+            return this.own.getCounterRow(key);
+        }
+        row = this.own.getCounterRow(key);
+        Map<B, Integer> baseRow = this.base.get(key);
+        if (baseRow == null) {
+            this.added++;
+            return row;
+        }
+        long count;
+        for (B eachKey : baseRow.keySet()) {
+            count = this.base.getCount(key, eachKey);
+            row.increment(eachKey, count);
+            this.replacedSquareSum += count * count;
+        }
+        this.sharedRows--;
+        this.sharedCells -= row.size();
+        return row;
+    }
+
+    @Override
+    public long getCount(Object k0, Object k1) {
+        CounterRow<B> row = this.own.findCounterRow(k0);
+        return row == null ? this.base.getCount(k0, k1) : row.getCount(k1);
+    }
+
+    @Override
+    public long getMass(Object k0) {
+        CounterRow<B> row = this.own.findCounterRow(k0);
+        return row == null ? this.base.getMass(k0) : row.getMass();
+    }
+
+    @Override
+    public long getMaxCount(Object k0) {
+        CounterRow<B> row = this.own.findCounterRow(k0);
+        return row == null ? this.base.getMaxCount(k0) : row.getMaxCount();
+    }
+
+    @Override
+    public long getSquareSum() {
+        return this.base.getSquareSum() - this.replacedSquareSum + this.own.getSquareSum();
+    }
+
+    @Override
+    public long increment(A k0, B k1, long delta) {
+        return this.getOwnRow(k0).increment(k1, delta);
+    }
+
+    @Override
+    public OverlayMatrix<A, B> fork() {
+        return new OverlayMatrix<>(this.base, this.own.fork(), this.added, this.replacedSquareSum, this.sharedRows, this.sharedCells);
+    }
+
+    @Override
+    public int size() {
+        return this.base.size() + this.added;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return this.own.containsKey(key) || this.base.containsKey(key);
+    }
+
+    @Override
+    public Map<B, Integer> get(Object key) {
+        Map<B, Integer> row = this.own.get(key);
+        return row == null ? this.base.get(key) : row;
+    }
+
+    @Override
+    public void clear() {
+        this.base = new CounterMatrix<>();
+        this.own.clear();
+        this.added = 0;
+        this.replacedSquareSum = 0L;
+        this.sharedRows = 0;
+        this.sharedCells = 0L;
+    }
+
+    @Override
+    public Set<Entry<A, Map<B, Integer>>> entrySet() {
+        return new AbstractSet<Entry<A, Map<B, Integer>>>() {
+            @Override
+            public Iterator<Entry<A, Map<B, Integer>>> iterator() {
+                // base rows with own rows in their place, then own rows that are not in the base
+                final Iterator<Entry<A, Map<B, Integer>>> baseIterator = OverlayMatrix.this.base.entrySet().iterator();
+                final Iterator<Entry<A, Map<B, Integer>>> ownIterator = OverlayMatrix.this.own.entrySet().iterator();
+                return new Iterator<Entry<A, Map<B, Integer>>>() {
+                    private Entry<A, Map<B, Integer>> next = this.advance();
+
+                    private Entry<A, Map<B, Integer>> advance() {
+                        Entry<A, Map<B, Integer>> entry;
+                        Map<B, Integer> row;
+                        if (baseIterator.hasNext()) {
+                            entry = baseIterator.next();
+                            row = OverlayMatrix.this.own.get(entry.getKey());
+                            return row == null ? entry : new SimpleImmutableEntry<>(entry.getKey(), row);
+                        }
+                        while (ownIterator.hasNext()) {
+                            entry = ownIterator.next();
+                            if (!OverlayMatrix.this.base.containsKey(entry.getKey())) {
+                                return entry;
+                            }
+                        }
+                        return null;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return this.next != null;
+                    }
+
+                    @Override
+                    public Entry<A, Map<B, Integer>> next() {
+                        if (this.next == null) {
+                            throw new NoSuchElementException();
+                        }
+                        Entry<A, Map<B, Integer>> entry = this.next;
+                        this.next = this.advance();
+                        return entry;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return OverlayMatrix.this.size();
+            }
+        };
+    }
+
+    @Override
+    public Integer put(A k0, B k1, Integer v) {
+        return this.getOwnRow(k0).put(k1, v);
+    }
+
+    @Override
+    public Integer get(A k0, B k1) {
+        Map<B, Integer> row = this.get(k0);
+        return row == null ? null : row.get(k1);
+    }
+
+    @Override
+    public Map<B, Integer> getRow(A key) {
+        return this.getOwnRow(key);
+    }
+
+    @Override
+    public void integrate(Matrix<A, B, Integer> other) {
+        for (Entry<A, Map<B, Integer>> entry : other.entrySet()) {
+            for (Entry<B, Integer> cell : entry.getValue().entrySet()) {
+                this.put(entry.getKey(), cell.getKey(), cell.getValue());
+            }
+        }
+    }
+
+    @Override
+    public String print() {
+        CounterMatrix<A, B> matrix = new CounterMatrix<>();
+        matrix.putAll(this);
+        return matrix.print();
+    }
+
+    @Override
+    public Set<B> getKeys(A k) {
+        Map<B, Integer> row = this.get(k);
+        if (row == null) {
+            return new HashSet<>();
+        }
+        return new HashSet<>(row.keySet());
+    }
+
+    @Override
+    public List<Integer> getValues(A k) {
+        Map<B, Integer> row = this.get(k);
+        if (row == null) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(row.values());
+    }
+}
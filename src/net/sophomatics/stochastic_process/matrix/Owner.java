@@ -0,0 +1,36 @@
+package net.sophomatics.stochastic_process.matrix;
+
+/**
+ * Marks the parts of a storage that it has written since it was last forked, a part marked otherwise is shared and
+ * copied before it is written. All marks of one storage have the same origin, so it can tell the parts that it shares
+ * with its own forks from the parts that it got from the storage it was forked from.
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-25
+ */
+public final class Owner {
+    private final Owner origin;
+
+    public Owner() {
+        this.origin = this;
+    }
+
+    private Owner(Owner origin) {
+        this.origin = origin;
+    }
+
+    /**
+     * @return mark of the same storage for the parts it writes after a fork
+     */
+    public Owner renew() {
+        return new Owner(this.origin);
+    }
+
+    /**
+     * @return whether a part marked with other was written by the storage of this mark
+     */
+    public boolean isSameOrigin(Owner other) {
+        return other.origin == this.origin;
+    }
+}
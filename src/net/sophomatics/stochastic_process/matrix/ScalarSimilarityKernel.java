@@ -0,0 +1,39 @@
+package net.sophomatics.stochastic_process.matrix;
+
+/**
+ * Straight loop implementation of similarity kernels
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-11
+ */
+public class ScalarSimilarityKernel implements SimilarityKernel {
+
+    @Override
+    public long getDotProduct(int[] a, int offsetA, int[] b, int offsetB, int length) {
+        long sum = 0L;
+        for (int i = 0; i < length; i++) {
+            sum += (long) a[offsetA + i] * b[offsetB + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public long getSquareSum(int[] a, int offset, int length) {
+        long sum = 0L;
+        for (int i = offset; i < offset + length; i++) {
+            sum += (long) a[i] * a[i];
+        }
+        return sum;
+    }
+
+    @Override
+    public double getSquaredDifference(int[] a, int offsetA, double scaleA, int[] b, int offsetB, double scaleB, int length) {
+        double sum = 0d, difference;
+        for (int i = 0; i < length; i++) {
+            difference = a[offsetA + i] * scaleA - b[offsetB + i] * scaleB;
+            sum += difference * difference;
+        }
+        return sum;
+    }
+}
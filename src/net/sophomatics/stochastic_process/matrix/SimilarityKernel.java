@@ -0,0 +1,16 @@
+package net.sophomatics.stochastic_process.matrix;
+
+/**
+ * Interface for the primitive loops behind similarity measures on contiguous frequency arrays
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-11
+ */
+public interface SimilarityKernel {
+    long getDotProduct(int[] a, int offsetA, int[] b, int offsetB, int length);
+
+    long getSquareSum(int[] a, int offset, int length);
+
+    double getSquaredDifference(int[] a, int offsetA, double scaleA, int[] b, int offsetB, double scaleB, int length);
+}
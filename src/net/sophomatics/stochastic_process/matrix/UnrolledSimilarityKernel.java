@@ -0,0 +1,67 @@
+package net.sophomatics.stochastic_process.matrix;
+
+/**
+ * Similarity kernels unrolled into four independent accumulators, which shortens the dependency chain of the sums
+ * but measured no faster than the scalar kernels on the sizes of the dense matrices, select it with
+ * -Dnet.sophomatics.kernel=unrolled
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-11
+ */
+public class UnrolledSimilarityKernel implements SimilarityKernel {
+
+    @Override
+    public long getDotProduct(int[] a, int offsetA, int[] b, int offsetB, int length) {
+        long s0 = 0L, s1 = 0L, s2 = 0L, s3 = 0L;
+        int i = 0;
+        for (int bound = length & ~3; i < bound; i += 4) {
+            s0 += (long) a[offsetA + i] * b[offsetB + i];
+            s1 += (long) a[offsetA + i + 1] * b[offsetB + i + 1];
+            s2 += (long) a[offsetA + i + 2] * b[offsetB + i + 2];
+            s3 += (long) a[offsetA + i + 3] * b[offsetB + i + 3];
+        }
+        for (; i < length; i++) {
+            s0 += (long) a[offsetA + i] * b[offsetB + i];
+        }
+        return s0 + s1 + s2 + s3;
+    }
+
+    @Override
+    public long getSquareSum(int[] a, int offset, int length) {
+        long s0 = 0L, s1 = 0L, s2 = 0L, s3 = 0L;
+        int i = offset, end = offset + length;
+        for (int bound = offset + (length & ~3); i < bound; i += 4) {
+            s0 += (long) a[i] * a[i];
+            s1 += (long) a[i + 1] * a[i + 1];
+            s2 += (long) a[i + 2] * a[i + 2];
+            s3 += (long) a[i + 3] * a[i + 3];
+        }
+        for (; i < end; i++) {
+            s0 += (long) a[i] * a[i];
+        }
+        return s0 + s1 + s2 + s3;
+    }
+
+    @Override
+    public double getSquaredDifference(int[] a, int offsetA, double scaleA, int[] b, int offsetB, double scaleB, int length) {
+        double s0 = 0d, s1 = 0d, s2 = 0d, s3 = 0d;
+        double d0, d1, d2, d3;
+        int i = 0;
+        for (int bound = length & ~3; i < bound; i += 4) {
+            d0 = a[offsetA + i] * scaleA - b[offsetB + i] * scaleB;
+            d1 = a[offsetA + i + 1] * scaleA - b[offsetB + i + 1] * scaleB;
+            d2 = a[offsetA + i + 2] * scaleA - b[offsetB + i + 2] * scaleB;
+            d3 = a[offsetA + i + 3] * scaleA - b[offsetB + i + 3] * scaleB;
+            s0 += d0 * d0;
+            s1 += d1 * d1;
+            s2 += d2 * d2;
+            s3 += d3 * d3;
+        }
+        for (; i < length; i++) {
+            d0 = a[offsetA + i] * scaleA - b[offsetB + i] * scaleB;
+            s0 += d0 * d0;
+        }
+        return s0 + s1 + s2 + s3;
+    }
+}
@@ -0,0 +1,21 @@
+package net.sophomatics.trace;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed width binary encoding of sensors or motors in a trace
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-22
+ */
+public interface Codec<T> {
+    /**
+     * @return number of bytes of every encoded value
+     */
+    int getWidth();
+
+    void write(T value, ByteBuffer buffer);
+
+    T read(ByteBuffer buffer);
+}
@@ -0,0 +1,66 @@
+package net.sophomatics.trace;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Codecs for the sensor and motor types of the mains
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-22
+ */
+public class Codecs {
+    public final static Codec<Character> CHARACTER = new Codec<Character>() {
+        @Override
+        public int getWidth() {
+            return 2;
+        }
+
+        @Override
+        public void write(Character value, ByteBuffer buffer) {
+            buffer.putChar(value);
+        }
+
+        @Override
+        public Character read(ByteBuffer buffer) {
+            return buffer.getChar();
+        }
+    };
+
+    public final static Codec<Boolean> BOOLEAN = new Codec<Boolean>() {
+        @Override
+        public int getWidth() {
+            return 1;
+        }
+
+        @Override
+        public void write(Boolean value, ByteBuffer buffer) {
+            buffer.put(value ? (byte) 1 : (byte) 0);
+        }
+
+        @Override
+        public Boolean read(ByteBuffer buffer) {
+            return buffer.get() != 0;
+        }
+    };
+
+    public final static Codec<Integer> INTEGER = new Codec<Integer>() {
+        @Override
+        public int getWidth() {
+            return 4;
+        }
+
+        @Override
+        public void write(Integer value, ByteBuffer buffer) {
+            buffer.putInt(value);
+        }
+
+        @Override
+        public Integer read(ByteBuffer buffer) {
+            return buffer.getInt();
+        }
+    };
+
+    private Codecs() {
+    }
+}
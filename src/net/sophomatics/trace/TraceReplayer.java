@@ -0,0 +1,129 @@
+package net.sophomatics.trace;
+
+import net.sophomatics.agents.Agent;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Drives agents from a trace written by a TraceWriter. The whole trace is mapped and loaded into memory on creation so
+ * that replay does not wait for I/O. An agent created with the recorded seed reproduces the recorded structure and
+ * trace if it learns synchronously, i.e. with serial or deterministic execution and a max staleness of 0.
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-22
+ */
+public class TraceReplayer<Sensor, Motor> {
+    private final long seed;
+    private final Codec<Sensor> sensorCodec;
+    private final Codec<Motor> motorCodec;
+    private final int recordSize;
+    private final List<MappedByteBuffer> regions;
+    private final long records;
+
+    public TraceReplayer(Path path, Codec<Sensor> sensorCodec, Codec<Motor> motorCodec) throws IOException {
+        this.sensorCodec = sensorCodec;
+        this.motorCodec = motorCodec;
+        this.recordSize = TraceWriter.getRecordSize(sensorCodec, motorCodec);
+        this.regions = new ArrayList<>();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0L, TraceWriter.HEADER_SIZE);
+            if (header.getInt() != TraceWriter.MAGIC || header.getInt() != TraceWriter.VERSION) {
+                throw new IllegalArgumentException("Not a trace of this version.");
+            }
+            this.seed = header.getLong();
+            if (header.getInt() != sensorCodec.getWidth() || header.getInt() != motorCodec.getWidth()) {
+                throw new IllegalArgumentException("Codecs do not match the trace.");
+            }
+
+            long length = channel.size() - TraceWriter.HEADER_SIZE;
+            if (length % this.recordSize != 0) {
+                throw new IllegalArgumentException("Trace is truncated.");
+            }
+            this.records = length / this.recordSize;
+
+            // regions hold whole records
+            long regionSize = (Integer.MAX_VALUE / this.recordSize) * (long) this.recordSize;
+            MappedByteBuffer region;
+            for (long start = 0L; start < length; start += regionSize) {
+                region = channel.map(FileChannel.MapMode.READ_ONLY, TraceWriter.HEADER_SIZE + start, Math.min(regionSize, length - start));
+                region.load();
+                this.regions.add(region);
+            }
+        }
+    }
+
+    public long getSeed() {
+        return this.seed;
+    }
+
+    public long size() {
+        return this.records;
+    }
+
+    /**
+     * Feeds the recorded steps to the agent. Blocks recorded from batched interaction are replayed as one batch.
+     *
+     * @return number of motors the agent chose differently than recorded
+     */
+    @SuppressWarnings("unchecked")
+    public long replay(Agent<Sensor, Motor> agent) {
+        long mismatches = 0L;
+        List<Sensor> sensors = new ArrayList<>();
+        List<Motor> motors = new ArrayList<>();
+        List<Double> rewards = new ArrayList<>();
+        byte kind;
+        Sensor s;
+        Motor m, chosen;
+        double reward;
+        for (MappedByteBuffer region : this.regions) {
+            region.rewind();
+            while (region.hasRemaining()) {
+                kind = region.get();
+                s = this.sensorCodec.read(region);
+                m = this.motorCodec.read(region);
+                reward = region.getDouble();
+
+                if (kind == TraceWriter.STEP) {
+                    chosen = agent.interact(s, reward);
+                } else if (kind == TraceWriter.BLOCK) {
+                    sensors.add(s);
+                    motors.add(m);
+                    rewards.add(reward);
+                    continue;
+                } else if (kind == TraceWriter.BLOCK_END) {
+                    sensors.add(s);
+                    rewards.add(reward);
+                    Sensor[] sensorArray = sensors.toArray((Sensor[]) Array.newInstance(s.getClass(), sensors.size()));
+                    Motor[] motorArray = motors.toArray((Motor[]) Array.newInstance(m.getClass(), motors.size()));
+                    double[] rewardArray = new double[rewards.size()];
+                    for (int i = 0; i < rewardArray.length; i++) {
+                        rewardArray[i] = rewards.get(i);
+                    }
+                    chosen = agent.interact(sensorArray, motorArray, rewardArray);
+                    sensors.clear();
+                    motors.clear();
+                    rewards.clear();
+                } else {
+                    throw new IllegalStateException("Unknown record kind " + kind + ".");
+                }
+
+                if (!m.equals(chosen)) {
+                    mismatches++;
+                }
+            }
+        }
+        if (!sensors.isEmpty()) {
+            throw new IllegalStateException("Trace ends inside a block.");
+        }
+        return mismatches;
+    }
+}
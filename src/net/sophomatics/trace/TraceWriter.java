@@ -0,0 +1,91 @@
+package net.sophomatics.trace;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append-only binary trace of interaction steps. The file starts with a header holding the agent's seed and the codec
+ * widths, followed by fixed size records of kind, sensor, motor and reward. Records are written to memory mapped
+ * regions, close truncates the file to the records written.
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-22
+ */
+public class TraceWriter<Sensor, Motor> implements Closeable {
+    final static int MAGIC = 0x534F5048;
+    final static int VERSION = 1;
+    final static int HEADER_SIZE = 24;
+    final static int REGION_RECORDS = 1 << 16;
+    /**
+     * Record of a single interact call
+     */
+    public final static byte STEP = 1;
+    /**
+     * Record of a block interact call, all but the last sensor of the block
+     */
+    public final static byte BLOCK = 2;
+    /**
+     * Last record of a block interact call
+     */
+    public final static byte BLOCK_END = 3;
+    private final FileChannel channel;
+    private final Codec<Sensor> sensorCodec;
+    private final Codec<Motor> motorCodec;
+    private final int recordSize;
+    private MappedByteBuffer region;
+    private long regionStart;
+    private long records;
+
+    public TraceWriter(Path path, long seed, Codec<Sensor> sensorCodec, Codec<Motor> motorCodec) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.sensorCodec = sensorCodec;
+        this.motorCodec = motorCodec;
+        this.recordSize = getRecordSize(sensorCodec, motorCodec);
+        this.records = 0L;
+
+        MappedByteBuffer header = this.channel.map(FileChannel.MapMode.READ_WRITE, 0L, HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putLong(seed);
+        header.putInt(sensorCodec.getWidth());
+        header.putInt(motorCodec.getWidth());
+        this.regionStart = HEADER_SIZE;
+        this.region = this.map();
+    }
+
+    static int getRecordSize(Codec<?> sensorCodec, Codec<?> motorCodec) {
+        return 1 + sensorCodec.getWidth() + motorCodec.getWidth() + 8;
+    }
+
+    private MappedByteBuffer map() throws IOException {
+        return this.channel.map(FileChannel.MapMode.READ_WRITE, this.regionStart, (long) REGION_RECORDS * this.recordSize);
+    }
+
+    public void write(byte kind, Sensor s, Motor m, double reward) throws IOException {
+        if (this.region.remaining() < this.recordSize) {
+            this.regionStart += this.region.position();
+            this.region = this.map();
+        }
+        this.region.put(kind);
+        this.sensorCodec.write(s, this.region);
+        this.motorCodec.write(m, this.region);
+        this.region.putDouble(reward);
+        this.records++;
+    }
+
+    public long size() {
+        return this.records;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.region.force();
+        this.channel.truncate(HEADER_SIZE + this.records * this.recordSize);
+        this.channel.close();
+    }
+}
@@ -0,0 +1,84 @@
+package net.sophomatics.util;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent histogram of non-negative values in power of two buckets. Recording neither locks nor allocates, bucket i
+ * counts values in [2^(i-1), 2^i) and bucket 0 counts 0.
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-22
+ */
+public class Histogram {
+    private final static int BUCKETS = 64;
+    private final LongAdder[] buckets;
+    private final LongAdder sum;
+
+    public Histogram() {
+        this.buckets = new LongAdder[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            this.buckets[i] = new LongAdder();
+        }
+        this.sum = new LongAdder();
+    }
+
+    public void record(long value) {
+        if (value < 0L) {
+            value = 0L;
+        }
+        this.buckets[BUCKETS - Long.numberOfLeadingZeros(value)].increment();
+        this.sum.add(value);
+    }
+
+    /**
+     * @return counts of all buckets up to the highest non-empty one
+     */
+    public long[] getCounts() {
+        int end = BUCKETS;
+        while (0 < end && this.buckets[end - 1].sum() == 0L) {
+            end--;
+        }
+        long[] counts = new long[end];
+        for (int i = 0; i < end; i++) {
+            counts[i] = this.buckets[i].sum();
+        }
+        return counts;
+    }
+
+    public long getCount() {
+        long count = 0L;
+        for (LongAdder bucket : this.buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    public double getMean() {
+        long count = this.getCount();
+        return count < 1L ? 0d : (double) this.sum.sum() / count;
+    }
+
+    /**
+     * @param quantile in [0, 1]
+     * @return upper bound of the bucket that holds the quantile
+     */
+    public long getQuantile(double quantile) {
+        if (quantile < 0d || 1d < quantile) {
+            throw new IllegalArgumentException("Quantile must be in [0, 1].");
+        }
+        long[] counts = this.getCounts();
+        long total = 0L;
+        for (long count : counts) {
+            total += count;
+        }
+        long rank = (long) Math.ceil(quantile * total), seen = 0L;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (rank <= seen) {
+                return i < 1 ? 0L : i < BUCKETS - 1 ? (1L << i) - 1L : Long.MAX_VALUE;
+            }
+        }
+        return 0L;
+    }
+}
@@ -0,0 +1,68 @@
+package net.sophomatics.util;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns dense integer ids to objects so that they can be stored in primitive arrays. Forked models share their
+ * interner, lookups never block and new ids are assigned under a lock.
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-02
+ */
+public class Interner<T> {
+    private final Map<T, Integer> ids;
+    private volatile Object[] values;
+    private volatile int size;
+
+    public Interner() {
+        this.ids = new ConcurrentHashMap<>();
+        this.values = new Object[16];
+        this.size = 0;
+    }
+
+    public int getId(T value) {
+        Integer id = this.ids.get(value);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = this.ids.get(value);
+            if (id == null) {
+                id = this.size;
+                if (this.values.length <= id) {
+                    this.values = Arrays.copyOf(this.values, 2 * this.values.length);
+                }
+                this.values[id] = value;
+                this.size = id + 1;
+                this.ids.put(value, id);
+            }
+        }
+        return id;
+    }
+
+    public int findId(Object value) {
+        if (value == null) {
+            return -1;
+        }
+        Integer id = this.ids.get(value);
+        if (id == null) {
+            return -1;
+        }
+        return id;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int id) {
+        if (id < 0 || this.size <= id) {
+            throw new IndexOutOfBoundsException("Unknown id " + id);
+        }
+        return (T) this.values[id];
+    }
+
+    public int size() {
+        return this.size;
+    }
+}
@@ -0,0 +1,222 @@
+package net.sophomatics.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Reports progress of long loops. Ticks only count, the clock is read every sampleInterval ticks and a report with the
+ * throughput since the previous report and the remaining time goes to the sink at most every reportNanos. Info texts
+ * are only built for reports.
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-22
+ */
+public class ProgressReporter {
+    public final static int DEFAULT_SAMPLE_INTERVAL = 1 << 10;
+    public final static long DEFAULT_REPORT_NANOS = 2000000000L;
+    private final long target;
+    private final String message;
+    private final Sink sink;
+    private final long mask;
+    private final long reportNanos;
+    private final long start;
+    private long ticks;
+    private long lastTicks;
+    private long lastTime;
+
+    public ProgressReporter(long target, String message) {
+        this(target, message, new LogSink(Logger.getLogger(ProgressReporter.class.getSimpleName())));
+    }
+
+    public ProgressReporter(long target, String message, Sink sink) {
+        this(target, message, sink, DEFAULT_SAMPLE_INTERVAL, DEFAULT_REPORT_NANOS);
+    }
+
+    /**
+     * @param target         expected number of ticks, 0 if unknown
+     * @param sampleInterval ticks between two clock reads, rounded up to a power of two
+     * @param reportNanos    minimum time between two reports
+     */
+    public ProgressReporter(long target, String message, Sink sink, int sampleInterval, long reportNanos) {
+        if (sampleInterval < 1 || (1 << 30) < sampleInterval) {
+            throw new IllegalArgumentException("Sample interval must be in [1, 2^30].");
+        }
+        int interval = Integer.highestOneBit(sampleInterval);
+        if (interval < sampleInterval) {
+            interval <<= 1;
+        }
+        this.target = target;
+        this.message = message;
+        this.sink = sink;
+        this.mask = interval - 1;
+        this.reportNanos = reportNanos;
+        this.start = System.nanoTime();
+        this.ticks = 0L;
+        this.lastTicks = 0L;
+        this.lastTime = this.start;
+    }
+
+    public void tick() {
+        if ((++this.ticks & this.mask) == 0L) {
+            this.sample(null);
+        }
+    }
+
+    /**
+     * @param info text appended to a report, only evaluated if a report is made
+     */
+    public void tick(Supplier<String> info) {
+        if ((++this.ticks & this.mask) == 0L) {
+            this.sample(info);
+        }
+    }
+
+    public void tick(long count, Supplier<String> info) {
+        long before = this.ticks;
+        this.ticks += count;
+        if ((before & ~this.mask) != (this.ticks & ~this.mask)) {
+            this.sample(info);
+        }
+    }
+
+    public long getTicks() {
+        return this.ticks;
+    }
+
+    private void sample(Supplier<String> info) {
+        long now = System.nanoTime();
+        if (now - this.lastTime < this.reportNanos) {
+            return;
+        }
+        double rate = (this.ticks - this.lastTicks) * 1e9d / (now - this.lastTime);
+        long remaining = this.ticks < this.target && 0d < rate ? (long) ((this.target - this.ticks) / rate * 1e9d) : -1L;
+        this.sink.report(new Progress(this.message, this.ticks, this.target, now - this.start, rate, remaining, info == null ? "" : info.get()));
+        this.lastTicks = this.ticks;
+        this.lastTime = now;
+    }
+
+    public void finished() {
+        this.finished(null);
+    }
+
+    public void finished(Supplier<String> info) {
+        long elapsed = System.nanoTime() - this.start;
+        double rate = elapsed < 1L ? 0d : this.ticks * 1e9d / elapsed;
+        this.sink.finished(new Progress(this.message, this.ticks, this.target, elapsed, rate, 0L, info == null ? "" : info.get()));
+    }
+
+    public interface Sink {
+        void report(Progress progress);
+
+        /**
+         * @param progress rate over the whole run
+         */
+        void finished(Progress progress);
+    }
+
+    public static class Progress {
+        public final String message;
+        public final long ticks;
+        public final long target;
+        public final long elapsedNanos;
+        /**
+         * Ticks per second since the previous report
+         */
+        public final double rate;
+        /**
+         * Estimated time to reach the target, -1 if unknown
+         */
+        public final long remainingNanos;
+        public final String info;
+
+        public Progress(String message, long ticks, long target, long elapsedNanos, double rate, long remainingNanos, String info) {
+            this.message = message;
+            this.ticks = ticks;
+            this.target = target;
+            this.elapsedNanos = elapsedNanos;
+            this.rate = rate;
+            this.remainingNanos = remainingNanos;
+            this.info = info;
+        }
+
+        private static String formatTime(long nanos) {
+            long seconds = nanos / 1000000000L;
+            return String.format("%02d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+        }
+
+        @Override
+        public String toString() {
+            String remaining = this.remainingNanos < 0L ? "unknown time" : formatTime(this.remainingNanos);
+            if (this.target < 1L) {
+                return String.format("%s %d iterations @ %.0f it/sec. %s", this.message, this.ticks, this.rate, this.info);
+            }
+            return String.format("%s %4.1f percent finished (%d/%d). %s remaining @ %.0f it/sec. %s", this.message, 100d * this.ticks / this.target, this.ticks, this.target, remaining, this.rate, this.info);
+        }
+    }
+
+    /**
+     * Writes reports to a logger at level info.
+     */
+    public static class LogSink implements Sink {
+        private final Logger logger;
+
+        public LogSink(Logger logger) {
+            this.logger = logger;
+        }
+
+        @Override
+        public void report(Progress progress) {
+            this.logger.info(progress.toString());
+        }
+
+        @Override
+        public void finished(Progress progress) {
+            this.logger.info(String.format("%s Completed. Time spent %s for %d iterations @ %.0f it/sec. %s", progress.message, Progress.formatTime(progress.elapsedNanos), progress.ticks, progress.rate, progress.info));
+        }
+    }
+
+    /**
+     * Writes one row per report and one for the end, after a header row.
+     */
+    public static class CsvSink implements Sink {
+        private final Writer writer;
+
+        public CsvSink(Writer writer) {
+            this.writer = writer;
+            this.write("message,ticks,target,elapsed_ms,rate,remaining_ms,finished,info");
+        }
+
+        private static String quote(String text) {
+            return "\"" + text.replace("\"", "\"\"") + "\"";
+        }
+
+        private void write(String row) {
+            try {
+                this.writer.write(row);
+                this.writer.write('\n');
+                this.writer.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void write(Progress progress, boolean finished) {
+            this.write(String.format(Locale.ROOT, "%s,%d,%d,%d,%.1f,%d,%b,%s", quote(progress.message), progress.ticks, progress.target, progress.elapsedNanos / 1000000L, progress.rate, progress.remainingNanos < 0L ? -1L : progress.remainingNanos / 1000000L, finished, quote(progress.info)));
+        }
+
+        @Override
+        public void report(Progress progress) {
+            this.write(progress, false);
+        }
+
+        @Override
+        public void finished(Progress progress) {
+            this.write(progress, true);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package net.sophomatics.util;
+
+import java.io.*;
+import java.util.Random;
+
+/**
+ * Helpers for random number generators
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-22
+ */
+public class Randoms {
+    private Randoms() {
+    }
+
+    /**
+     * @return generator that produces the same sequence as random from its current state on
+     */
+    public static Random copy(Random random) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(random);
+            out.close();
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+            return (Random) in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("Cannot copy random generator.", e);
+        }
+    }
+}
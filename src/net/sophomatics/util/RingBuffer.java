@@ -0,0 +1,80 @@
+package net.sophomatics.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock-free queue for exactly one producer thread and one consumer thread
+ *
+ * @author mark
+ * @version 1.0
+ * @since 2015-09-19
+ */
+public class RingBuffer<T> {
+    private final Object[] items;
+    private final int mask;
+    private final AtomicLong head;
+    private final AtomicLong tail;
+
+    /**
+     * @param capacity minimum capacity, rounded up to a power of two
+     */
+    public RingBuffer(int capacity) {
+        if (capacity < 1 || (1 << 30) < capacity) {
+            throw new IllegalArgumentException("Capacity must be in [1, 2^30].");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.items = new Object[size];
+        this.mask = size - 1;
+        this.head = new AtomicLong(0L);
+        this.tail = new AtomicLong(0L);
+    }
+
+    /**
+     * Producer side
+     *
+     * @return false if the buffer is full
+     */
+    public boolean offer(T item) {
+        long t = this.tail.get();
+        if (t - this.head.get() == this.items.length) {
+            return false;
+        }
+        this.items[(int) t & this.mask] = item;
+        // publishes the item to the consumer
+        this.tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * Consumer side
+     *
+     * @return the oldest item or null if the buffer is empty
+     */
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        long h = this.head.get();
+        if (h == this.tail.get()) {
+            return null;
+        }
+        int i = (int) h & this.mask;
+        T item = (T) this.items[i];
+        this.items[i] = null;
+        this.head.lazySet(h + 1);
+        return item;
+    }
+
+    public int size() {
+        return (int) (this.tail.get() - this.head.get());
+    }
+
+    public boolean isEmpty() {
+        return this.size() == 0;
+    }
+
+    public int capacity() {
+        return this.items.length;
+    }
+}